@@ -5,6 +5,7 @@ import java.io.PrintStream;
 
 import org.apache.log4j.Logger;
 
+import ee.ioc.phon.tsab.common.Search;
 import ee.ioc.phon.tsab.common.TsabException;
 import ee.ioc.phon.tsab.dao.TsabDaoService;
 import ee.ioc.phon.tsab.domain.Category;
@@ -43,9 +44,21 @@ public class CrawlCLIProvider implements CLIProvider {
 
     File dir = new File(args[1]);
 
+    long start = System.currentTimeMillis();
+    long rowsBefore = TsabDaoService.getDao().getLoadedRowCount();
+    long millisBefore = TsabDaoService.getDao().getLoadMillis();
+
     processDir(dir, 0, "", null);
 
     System.out.println("Successfully clawled dir " + dir);
+    long rows = TsabDaoService.getDao().getLoadedRowCount() - rowsBefore;
+    long millis = Math.max(1, TsabDaoService.getDao().getLoadMillis() - millisBefore);
+    System.out.println("Inserted " + rows + " topic and fragment rows in " + (millis / 1000f) + "s; "
+        + Math.round(rows * 1000d / millis) + " rows/s");
+    int count = Search.getJournalIndexer().drain();
+    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+    System.out.println("Crawled and indexed " + count + " recordings in " + (elapsed / 1000f) + "s; "
+        + Math.round(count * 1000d / elapsed) + " recordings/s");
 
     return 0;
   }
@@ -2,24 +2,37 @@ package ee.ioc.phon.tsab.cli;
 
 import java.io.File;
 import java.io.PrintStream;
-import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
-import ee.ioc.phon.tsab.common.Constants;
+import ee.ioc.phon.tsab.common.JournalPosition;
+import ee.ioc.phon.tsab.common.IndexWriterService;
+import ee.ioc.phon.tsab.common.RelatedRecordings;
 import ee.ioc.phon.tsab.common.Search;
 import ee.ioc.phon.tsab.common.Tools;
 import ee.ioc.phon.tsab.common.TsabException;
 import ee.ioc.phon.tsab.dao.TsabDaoService;
 import ee.ioc.phon.tsab.domain.Transcription;
+import ee.ioc.phon.tsab.domain.TranscriptionFragment;
 
 public class ReindexCLIProvider implements CLIProvider {
 
   private final static Logger log = Logger.getLogger(ReindexCLIProvider.class);
 
+  // print progress at most this often (ms)
+  private static final long PROGRESS_INTERVAL = 10000;
+
   @Override
   public void printUsage(PrintStream out) {
-    out.println("  reindex");
+    out.println("  reindex [--threads N]");
   }
 
   @Override
@@ -31,6 +44,9 @@ public class ReindexCLIProvider implements CLIProvider {
   public int handle(String[] args) {
     try {
       return internalHandle(args);
+    } catch (NumberFormatException e) {
+      e.printStackTrace();
+      return -2;
     } catch (TsabException e) {
       e.printStackTrace();
       return -1;
@@ -38,20 +54,160 @@ public class ReindexCLIProvider implements CLIProvider {
   }
 
   private int internalHandle(String[] args) throws TsabException {
-    Search.clearIndex();
-    Iterator<Transcription> it = TsabDaoService.getDao().getAllTranscriptions().iterator();
-    while (it.hasNext()) {
-      Transcription t = (Transcription) it.next();
-      log.info("Indexing "+t);      
-      Search.indexTranscription(t);
-      Long len = t.getAudioLength();
-      if (len==null || len.intValue()==0) {
-        Tools.updateAudioLength(t);
-        TsabDaoService.getDao().updateTranscription(t);
+    int threads = Runtime.getRuntime().availableProcessors();
+    for (int i = 1; i < args.length; i++) {
+      if ("--threads".equals(args[i]) && i + 1 < args.length) {
+        threads = Math.max(1, Integer.parseInt(args[++i]));
+      } else {
+        System.err.println("Unknown argument: " + args[i]);
+        return -2;
       }
-    }    
+    }
+
+    long start = System.currentTimeMillis();
+
+    // changes made while rebuilding are applied from the journal after activation
+    JournalPosition journalMark = Search.getJournalIndexer().getRebuildPosition();
+    List<Transcription> all = TsabDaoService.getDao().getAllTranscriptions();
+    System.out.println("Reindexing " + all.size() + " transcriptions using " + threads + " threads");
+
+    // Build into a new index generation, the live index keeps serving searches meanwhile
+    File folder = Search.getIndexGenerations().createFolder();
+    IndexWriterService builder = Search.openIndexBuilder(folder);
+
+    Queue<Transcription> missingLength = new ConcurrentLinkedQueue<Transcription>();
+    int failed;
+    try {
+      failed = indexAll(all, threads, builder, missingLength);
+      builder.commit(journalMark.toCommitData());
+    } finally {
+      builder.close();
+    }
+    System.out.println(builder.getThroughputReport(start));
+
+    if (failed > 0) {
+      System.err.println("Failed to index " + failed + " transcriptions, keeping the current index. See log for details");
+      Search.getIndexGenerations().delete(folder);
+      return -1;
+    }
+
+    // served from memory by the play page, computed before the new index goes live
+    int related = RelatedRecordings.build(folder, threads);
+    System.out.println("Computed related recordings of " + related + " recordings");
+
+    Search.activateIndexGeneration(folder);
+    System.out.println("Activated new index " + folder);
+
+    int changed = Search.getJournalIndexer().drain();
+    if (changed > 0) {
+      System.out.println("Re-indexed " + changed + " recordings changed during the rebuild");
+    }
+
+    // Audio length backfill shells out to ffmpeg, keep it out of the indexing stage
+    if (!missingLength.isEmpty()) {
+      failed += updateAudioLengths(missingLength, threads);
+    }
+
+    if (failed > 0) {
+      System.err.println("Reindex finished with " + failed + " failures, see log for details");
+      return -1;
+    }
     return 0;
   }
 
+  private int indexAll(List<Transcription> all, int threads, final IndexWriterService builder,
+      final Queue<Transcription> missingLength)
+      throws TsabException {
+    final int total = all.size();
+    final long start = System.currentTimeMillis();
+    final AtomicInteger done = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    final long[] lastReport = new long[] { start };
+
+    ExecutorService pool = newBoundedPool(threads);
+    try {
+      for (final Transcription t : all) {
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              List<TranscriptionFragment> fragments = TsabDaoService.getDao().getTranscriptionFragments(t);
+              builder.addDocuments(Search.buildDocuments(t, fragments));
+
+              Long len = t.getAudioLength();
+              if (len == null || len.intValue() == 0) {
+                missingLength.add(t);
+              }
+            } catch (Exception e) {
+              failed.incrementAndGet();
+              log.error("Failed to index " + t, e);
+            }
+
+            int count = done.incrementAndGet();
+            long now = System.currentTimeMillis();
+            synchronized (lastReport) {
+              if (now - lastReport[0] >= PROGRESS_INTERVAL || count == total) {
+                lastReport[0] = now;
+                System.out.println("Indexed " + count + "/" + total + " transcriptions; "
+                    + Math.round(count * 1000d / Math.max(1, now - start)) + " transcriptions/s");
+              }
+            }
+          }
+        });
+      }
+    } finally {
+      awaitTermination(pool);
+    }
+    return failed.get();
+  }
+
+  private int updateAudioLengths(Queue<Transcription> missingLength, int threads) throws TsabException {
+    System.out.println("Updating audio length of " + missingLength.size() + " transcriptions");
+    final AtomicInteger failed = new AtomicInteger();
+
+    ExecutorService pool = newBoundedPool(threads);
+    try {
+      for (final Transcription t : missingLength) {
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              Tools.updateAudioLength(t);
+              TsabDaoService.getDao().updateTranscription(t);
+            } catch (Exception e) {
+              failed.incrementAndGet();
+              log.error("Failed to update audio length of " + t, e);
+            }
+          }
+        });
+      }
+    } finally {
+      awaitTermination(pool);
+    }
+    return failed.get();
+  }
+
+  /**
+   * Fixed size pool with a short queue. When the queue is full the submitting
+   * thread runs the task itself, which keeps at most a few recordings loaded
+   * ahead of the workers.
+   */
+  private static ExecutorService newBoundedPool(int threads) {
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+        threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
+  private static void awaitTermination(ExecutorService pool) throws TsabException {
+    pool.shutdown();
+    try {
+      while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+        log.debug("Waiting for reindex workers to finish");
+      }
+    } catch (InterruptedException e) {
+      pool.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new TsabException("Interrupted while reindexing!", e);
+    }
+  }
 
 }
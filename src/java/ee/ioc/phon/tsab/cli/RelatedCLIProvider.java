@@ -0,0 +1,59 @@
+package ee.ioc.phon.tsab.cli;
+
+import java.io.File;
+import java.io.PrintStream;
+
+import ee.ioc.phon.tsab.common.RelatedRecordings;
+import ee.ioc.phon.tsab.common.Search;
+import ee.ioc.phon.tsab.common.TsabException;
+
+/**
+ * Recomputes the related recordings table of the active index. Run it
+ * periodically (e.g. from cron) to include recordings added since the last
+ * reindex.
+ */
+public class RelatedCLIProvider implements CLIProvider {
+
+  @Override
+  public void printUsage(PrintStream out) {
+    out.println("  related [--threads N]");
+  }
+
+  @Override
+  public String[] getCommands() {
+    return new String[] { "related" };
+  }
+
+  @Override
+  public int handle(String[] args) {
+    try {
+      return internalHandle(args);
+    } catch (NumberFormatException e) {
+      e.printStackTrace();
+      return -2;
+    } catch (TsabException e) {
+      e.printStackTrace();
+      return -1;
+    }
+  }
+
+  private int internalHandle(String[] args) throws TsabException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    for (int i = 1; i < args.length; i++) {
+      if ("--threads".equals(args[i]) && i + 1 < args.length) {
+        threads = Math.max(1, Integer.parseInt(args[++i]));
+      } else {
+        System.err.println("Unknown argument: " + args[i]);
+        return -2;
+      }
+    }
+
+    long start = System.currentTimeMillis();
+    File folder = Search.getIndexGenerations().getActiveFolder();
+    int count = RelatedRecordings.build(folder, threads);
+    System.out.println("Computed related recordings of " + count + " recordings in "
+        + ((System.currentTimeMillis() - start) / 1000f) + "s");
+    return 0;
+  }
+
+}
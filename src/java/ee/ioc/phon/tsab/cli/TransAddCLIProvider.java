@@ -10,7 +10,6 @@ import java.util.List;
 import org.apache.log4j.Logger;
 
 import ee.ioc.phon.tsab.common.Constants;
-import ee.ioc.phon.tsab.common.Search;
 import ee.ioc.phon.tsab.common.Tools;
 import ee.ioc.phon.tsab.common.TsabException;
 import ee.ioc.phon.tsab.dao.TsabDaoService;
@@ -123,12 +122,6 @@ public class TransAddCLIProvider implements CLIProvider {
 
     }
 
-    try {
-      Search.indexTranscription(current);
-    } catch (Exception e) {
-      throw new TsabException("Coult not index transcription!", e);
-    }
-
     if (audio.getName().toLowerCase().endsWith(".ogg")) {
       // Convert ogg to mp3 into soundUploadFolder
       Tools.convertOGGtoMP3(audio.getAbsolutePath(), Constants.soundUploadFolder.getAbsolutePath() + File.separator + parser.getFn() + ".mp3");
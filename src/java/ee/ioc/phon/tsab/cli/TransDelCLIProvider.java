@@ -4,7 +4,6 @@ import java.io.File;
 import java.io.PrintStream;
 
 import ee.ioc.phon.tsab.common.Constants;
-import ee.ioc.phon.tsab.common.Search;
 import ee.ioc.phon.tsab.common.TsabException;
 import ee.ioc.phon.tsab.dao.TsabDaoService;
 
@@ -45,8 +44,6 @@ public class TransDelCLIProvider implements CLIProvider {
     
     TsabDaoService.getDao().deleteTranscriptionById(new Long(transId));
     
-    Search.removeTranscription(transId);
-    
     //new File(Constants.soundUploadFolder+File.separator+code+".mp3").delete();
     //new File(Constants.soundUploadFolder+File.separator+code+".trs").delete();
     
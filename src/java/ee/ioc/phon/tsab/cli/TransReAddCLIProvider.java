@@ -9,7 +9,6 @@ import java.util.List;
 
 import org.apache.log4j.Logger;
 
-import ee.ioc.phon.tsab.common.Search;
 import ee.ioc.phon.tsab.common.TsabException;
 import ee.ioc.phon.tsab.dao.TsabDaoService;
 import ee.ioc.phon.tsab.domain.Transcription;
@@ -90,13 +89,6 @@ public class TransReAddCLIProvider implements CLIProvider {
       TsabDaoService.getDao().addFragmentsAndTopics(newt, fragments, parser.getTopics());
 
 
-    try {
-      Search.removeTranscription(v.getId().toString());
-      Search.indexTranscription(v);
-    } catch (Exception e) {
-      throw new TsabException("Coult not index transcription!", e);
-    }
-
     //TsabDaoService.getDao().updateTranscription(current);
 
     log.debug("Successfully updated trs "+trs.getAbsolutePath());
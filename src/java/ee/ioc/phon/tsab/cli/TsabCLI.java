@@ -5,6 +5,11 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import ee.ioc.phon.tsab.common.Search;
+import ee.ioc.phon.tsab.common.TsabException;
+import ee.ioc.phon.tsab.dao.TsabDaoService;
+import ee.ioc.phon.tsab.dao.UnitOfWork;
+
 public class TsabCLI {
 
   private final static CLIProvider[] providers = new CLIProvider[]{
@@ -16,6 +21,7 @@ public class TsabCLI {
       new TransDelCLIProvider(),
       new CrawlCLIProvider(),
       new ReindexCLIProvider(),
+      new RelatedCLIProvider(),
       new TransReAddCLIProvider()
   };
   
@@ -62,7 +68,16 @@ public class TsabCLI {
     
     for (CLIProvider p: providers) {
       if (supports(p, cmd)) {
-        int ret = p.handle(args);
+        int ret;
+        // one database connection for the whole command
+        UnitOfWork unit = UnitOfWork.begin("tsabcli " + cmd);
+        try {
+          ret = p.handle(args);
+          applyIndexJournal();
+        } finally {
+          unit.end();
+          closeIndex();
+        }
         if (ret == -2) {
           System.out.println("Illegal arguments. Usage:");
           p.printUsage(System.err);          
@@ -76,6 +91,29 @@ public class TsabCLI {
     
   }
 
+  private static void applyIndexJournal() {
+    if (TsabDaoService.getDao().getJournalWriteCount() == 0) {
+      return;
+    }
+    try {
+      int count = Search.getJournalIndexer().drain();
+      System.out.println("Re-indexed " + count + " changed recordings");
+    } catch (TsabException e) {
+      System.err.println("Failed to update Lucene index, the web application will retry!");
+      e.printStackTrace();
+    }
+  }
+
+  private static void closeIndex() {
+    try {
+      // commits whatever the command left pending in the index writer
+      Search.close();
+    } catch (TsabException e) {
+      System.err.println("Failed to close Lucene index!");
+      e.printStackTrace();
+    }
+  }
+
   private static boolean supports(CLIProvider p, String cmd) {
     Iterator<Entry<String, CLIProvider>> it = commandHandlers.entrySet().iterator();
     while (it.hasNext()) {
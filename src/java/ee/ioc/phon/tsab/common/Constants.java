@@ -26,6 +26,42 @@ public class Constants {
 
   public static boolean createNewLuceneIndex = false;
 
+  // index changes are committed once this many operations are pending ...
+  public static int indexCommitBatchSize = 1000;
+
+  // ... or this many milliseconds have passed since the last commit
+  public static long indexCommitInterval = 10000;
+
+  // how often searchers check the index change marker written by other processes (ms)
+  public static long indexChangeCheckInterval = 1000;
+
+  // how long a writer waits for another process to release the index write lock (ms)
+  public static long indexWriteLockTimeout = 5 * 60 * 1000L;
+
+  // how often the web application applies the index journal (ms)
+  public static long indexJournalInterval = 5000;
+
+  // skipped index journal ids are looked up again this long, the longest a transaction writing to it may take (ms)
+  public static long indexJournalGapTimeout = 60 * 60 * 1000L;
+
+  // applied index journal entries are kept this long for rebuilds running meanwhile (ms)
+  public static long indexJournalRetention = 24 * 60 * 60 * 1000L;
+
+  // number of rendered search results kept in memory
+  public static int searchCacheSize = 500;
+
+  // number of recordings whose word index is kept in memory for finding words in them
+  public static int recordingIndexCacheSize = 50;
+
+  // how long the category tree is served from memory before it is reloaded for changes of other processes (ms)
+  public static long categoryTreeReloadInterval = 60 * 1000L;
+
+  // how often the second-level cache checks the database change marker written by other processes (ms)
+  public static long dbChangeCheckInterval = 1000;
+
+  // how often view counts are written to the database (ms)
+  public static long viewCountFlushInterval = 30 * 1000L;
+
   static {
 
     String dbHost = null;
@@ -0,0 +1,85 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Scorer;
+
+/**
+ * Passes every hit on to another collector and counts the values of the facet
+ * fields over the fragment hits with {@link FieldFacetCounter}s. Recording
+ * documents (title matches) are passed on but not counted, so every count is a
+ * number of fragments and a recording matching by both title and text is not
+ * counted once more. Stored documents are not loaded.
+ */
+public class FacetCollector extends Collector {
+
+  private final Collector delegate;
+
+  private final FieldFacetCounter[] counters;
+
+  private FieldCache.StringIndex types;
+
+  private int fragmentOrd;
+
+  public FacetCollector(Collector delegate, String... fields) {
+    this.delegate = delegate;
+    this.counters = new FieldFacetCounter[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      counters[i] = new FieldFacetCounter(fields[i]);
+    }
+  }
+
+  @Override
+  public void setScorer(Scorer scorer) throws IOException {
+    delegate.setScorer(scorer);
+  }
+
+  @Override
+  public void setNextReader(IndexReader reader, int docBase) throws IOException {
+    delegate.setNextReader(reader, docBase);
+    types = FieldCache.DEFAULT.getStringIndex(reader, Search.FIELD_TYPE);
+    fragmentOrd = -1;
+    for (int ord = 1; ord < types.lookup.length; ord++) {
+      if (Search.TYPE_FRAGMENT.equals(types.lookup[ord])) {
+        fragmentOrd = ord;
+      }
+    }
+    for (FieldFacetCounter counter : counters) {
+      counter.setNextReader(reader);
+    }
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    delegate.collect(doc);
+    if (types.order[doc] != fragmentOrd) {
+      return;
+    }
+    for (FieldFacetCounter counter : counters) {
+      counter.count(doc);
+    }
+  }
+
+  @Override
+  public boolean acceptsDocsOutOfOrder() {
+    return delegate.acceptsDocsOutOfOrder();
+  }
+
+  /**
+   * @return fragment hit counts per value of each facet field, in the order
+   *         the fields were given
+   */
+  public Map<String, Map<String, Integer>> getFacets() {
+    Map<String, Map<String, Integer>> facets = new LinkedHashMap<String, Map<String, Integer>>();
+    for (FieldFacetCounter counter : counters) {
+      facets.put(counter.getField(), counter.getCounts());
+    }
+    return facets;
+  }
+
+}
@@ -0,0 +1,73 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
+
+/**
+ * Counts the values of a single valued, untokenized field over the documents
+ * of a search, using the {@link FieldCache} of each index segment. Feed it from
+ * a {@link org.apache.lucene.search.Collector} such as {@link FacetCollector}:
+ * call
+ * {@link #setNextReader(IndexReader)} for every segment and
+ * {@link #count(int)} for every matching document of it.
+ */
+public class FieldFacetCounter {
+
+  private final String field;
+
+  private final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+  private FieldCache.StringIndex index;
+
+  private int[] segmentCounts;
+
+  public FieldFacetCounter(String field) {
+    this.field = field;
+  }
+
+  public String getField() {
+    return field;
+  }
+
+  public void setNextReader(IndexReader reader) throws IOException {
+    flush();
+    index = FieldCache.DEFAULT.getStringIndex(reader, field);
+    segmentCounts = new int[index.lookup.length];
+  }
+
+  /**
+   * @param doc document number within the current segment
+   */
+  public void count(int doc) {
+    segmentCounts[index.order[doc]]++;
+  }
+
+  /**
+   * @return number of counted documents per field value. Documents without a
+   *         value are not included.
+   */
+  public Map<String, Integer> getCounts() {
+    flush();
+    return counts;
+  }
+
+  private void flush() {
+    if (segmentCounts == null) {
+      return;
+    }
+    // ord 0 stands for documents without a value
+    for (int ord = 1; ord < segmentCounts.length; ord++) {
+      if (segmentCounts[ord] > 0) {
+        Integer count = counts.get(index.lookup[ord]);
+        counts.put(index.lookup[ord], (count == null ? 0 : count) + segmentCounts[ord]);
+      }
+    }
+    segmentCounts = null;
+    index = null;
+  }
+
+}
@@ -0,0 +1,46 @@
+package ee.ioc.phon.tsab.common;
+
+/**
+ * A single matching {@link ee.ioc.phon.tsab.domain.TranscriptionFragment} as
+ * read back from the fragment-level search index.
+ */
+public class FragmentHit {
+
+  private final long time;
+  private final String speaker;
+  private final String topic;
+  private final String text;
+  private final float score;
+
+  public FragmentHit(long time, String speaker, String topic, String text, float score) {
+    this.time = time;
+    this.speaker = speaker;
+    this.topic = topic;
+    this.text = text;
+    this.score = score;
+  }
+
+  /**
+   * @return offset of the fragment from the start of the recording in ms
+   */
+  public long getTime() {
+    return time;
+  }
+
+  public String getSpeaker() {
+    return speaker;
+  }
+
+  public String getTopic() {
+    return topic;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  public float getScore() {
+    return score;
+  }
+
+}
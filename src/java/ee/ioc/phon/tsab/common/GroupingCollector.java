@@ -0,0 +1,226 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+
+/**
+ * Groups hits by recording ({@link Search#FIELD_TID}) in a single pass: keeps
+ * the best fragment hits of every matching recording and, at the end, the
+ * recordings with the best hits. A recording is ranked by its best hit, which
+ * may also be the recording document itself (e.g. a title match). The
+ * recording of a hit is read from the {@link FieldCache} of each segment.
+ * <p>
+ * Memory grows with the number of matching recordings, not hits: every one of
+ * them is kept until the end with at most <code>hitsPerGroup</code> hits, as
+ * its best hit may come after it would have been dropped from a bounded top N
+ * (hits arrive in document order, not by score). Bounding it would take a
+ * second pass over the hits. Only the top <code>maxGroups</code> recordings
+ * are ordered at the end.
+ */
+public class GroupingCollector extends Collector {
+
+  private static final Comparator<Group> BEST_FIRST = new Comparator<Group>() {
+    @Override
+    public int compare(Group a, Group b) {
+      if (a.bestScore != b.bestScore) {
+        return a.bestScore > b.bestScore ? -1 : 1;
+      }
+      return a.bestDoc < b.bestDoc ? -1 : (a.bestDoc == b.bestDoc ? 0 : 1);
+    }
+  };
+
+  private final int maxGroups;
+
+  private final int hitsPerGroup;
+
+  private final Map<String, Group> groups = new HashMap<String, Group>();
+
+  private Scorer scorer;
+
+  private int docBase;
+
+  private FieldCache.StringIndex tids;
+
+  private FieldCache.StringIndex types;
+
+  private int fragmentOrd;
+
+  // groups of the current segment by tid ord, resolved on first use
+  private Group[] segmentGroups;
+
+  private int totalHits;
+
+  /**
+   * @param maxGroups number of recordings returned
+   * @param hitsPerGroup number of fragment hits kept per recording
+   */
+  public GroupingCollector(int maxGroups, int hitsPerGroup) {
+    this.maxGroups = maxGroups;
+    this.hitsPerGroup = hitsPerGroup;
+  }
+
+  @Override
+  public void setScorer(Scorer scorer) throws IOException {
+    this.scorer = scorer;
+  }
+
+  @Override
+  public void setNextReader(IndexReader reader, int docBase) throws IOException {
+    this.docBase = docBase;
+    tids = FieldCache.DEFAULT.getStringIndex(reader, Search.FIELD_TID);
+    types = FieldCache.DEFAULT.getStringIndex(reader, Search.FIELD_TYPE);
+    fragmentOrd = -1;
+    for (int ord = 1; ord < types.lookup.length; ord++) {
+      if (Search.TYPE_FRAGMENT.equals(types.lookup[ord])) {
+        fragmentOrd = ord;
+      }
+    }
+    segmentGroups = new Group[tids.lookup.length];
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    totalHits++;
+
+    int ord = tids.order[doc];
+    if (ord == 0) {
+      return;
+    }
+    Group group = segmentGroups[ord];
+    if (group == null) {
+      String tid = tids.lookup[ord];
+      group = groups.get(tid);
+      if (group == null) {
+        group = new Group(tid, hitsPerGroup);
+        groups.put(tid, group);
+      }
+      segmentGroups[ord] = group;
+    }
+    group.add(docBase + doc, scorer.score(), types.order[doc] == fragmentOrd);
+  }
+
+  @Override
+  public boolean acceptsDocsOutOfOrder() {
+    return true;
+  }
+
+  public int getTotalHits() {
+    return totalHits;
+  }
+
+  /**
+   * @return the best recordings, best first
+   */
+  public List<Group> getGroups() {
+    if (maxGroups <= 0) {
+      return Collections.emptyList();
+    }
+    // the worst of the best on top
+    PriorityQueue<Group> best = new PriorityQueue<Group>(maxGroups, Collections.reverseOrder(BEST_FIRST));
+    for (Group group : groups.values()) {
+      if (best.size() < maxGroups) {
+        best.add(group);
+      } else if (BEST_FIRST.compare(group, best.peek()) < 0) {
+        best.poll();
+        best.add(group);
+      }
+    }
+    List<Group> result = new ArrayList<Group>(best);
+    Collections.sort(result, BEST_FIRST);
+    return result;
+  }
+
+  /**
+   * Hits of one recording.
+   */
+  public static class Group {
+
+    private final String tid;
+
+    private float bestScore = Float.NEGATIVE_INFINITY;
+
+    private int bestDoc = Integer.MAX_VALUE;
+
+    private final int maxHits;
+
+    // best fragment hits, best first; allocated with the first one
+    private int[] docs;
+
+    private float[] scores;
+
+    private int size;
+
+    Group(String tid, int maxHits) {
+      this.tid = tid;
+      this.maxHits = maxHits;
+    }
+
+    void add(int doc, float score, boolean fragment) {
+      if (better(score, doc, bestScore, bestDoc)) {
+        bestScore = score;
+        bestDoc = doc;
+      }
+      if (!fragment || maxHits == 0) {
+        return;
+      }
+      if (docs == null) {
+        docs = new int[maxHits];
+        scores = new float[maxHits];
+      }
+      if (size == docs.length && !better(score, doc, scores[size - 1], docs[size - 1])) {
+        return;
+      }
+      int i = size == docs.length ? size - 1 : size++;
+      while (i > 0 && better(score, doc, scores[i - 1], docs[i - 1])) {
+        docs[i] = docs[i - 1];
+        scores[i] = scores[i - 1];
+        i--;
+      }
+      docs[i] = doc;
+      scores[i] = score;
+    }
+
+    private static boolean better(float score, int doc, float otherScore, int otherDoc) {
+      return score > otherScore || (score == otherScore && doc < otherDoc);
+    }
+
+    public String getTid() {
+      return tid;
+    }
+
+    /**
+     * @return the best hit of the recording, fragment or recording document
+     */
+    public int getBestDoc() {
+      return bestDoc;
+    }
+
+    public float getBestScore() {
+      return bestScore;
+    }
+
+    /**
+     * @return the best fragment hits, best first
+     */
+    public ScoreDoc[] getFragmentHits() {
+      ScoreDoc[] hits = new ScoreDoc[size];
+      for (int i = 0; i < size; i++) {
+        hits[i] = new ScoreDoc(docs[i], scores[i]);
+      }
+      return hits;
+    }
+  }
+
+}
@@ -0,0 +1,184 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexFileNameFilter;
+
+/**
+ * Blue/green layout of the Lucene folder. Each full rebuild writes into a fresh
+ * <code>index-*</code> sub folder; the file {@value #POINTER_FILE} names the
+ * folder that is currently active and is replaced atomically once the rebuild
+ * has finished. Without a pointer file the Lucene folder itself holds the index
+ * (layout used before generations were introduced).
+ * <p>
+ * The file {@value #CHANGE_FILE} is rewritten whenever any process commits to
+ * the active index or activates a new generation, so that searchers in other
+ * processes (the web application while the CLI writes) can poll a single small
+ * file to learn that they have to reopen.
+ */
+public class IndexGenerations {
+
+  private final static Logger log = Logger.getLogger(IndexGenerations.class);
+
+  public static final String POINTER_FILE = "current";
+
+  public static final String CHANGE_FILE = "changed";
+
+  private static final String FOLDER_PREFIX = "index-";
+
+  private final File root;
+
+  public IndexGenerations(File root) {
+    this.root = root;
+  }
+
+  /**
+   * @return folder of the index that searchers and incremental writers use
+   */
+  public File getActiveFolder() throws TsabException {
+    File pointer = new File(root, POINTER_FILE);
+    if (!pointer.exists()) {
+      return root;
+    }
+    try {
+      BufferedReader in = new BufferedReader(new FileReader(pointer));
+      try {
+        String name = in.readLine();
+        return name == null || name.trim().length() == 0 ? root : new File(root, name.trim());
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new TsabException("Failed to read active index pointer " + pointer, e);
+    }
+  }
+
+  /**
+   * @return new, empty folder for a full rebuild
+   */
+  public File createFolder() throws TsabException {
+    File folder = new File(root, FOLDER_PREFIX + System.currentTimeMillis());
+    if (!folder.mkdir()) {
+      throw new TsabException("Failed to create index folder " + folder);
+    }
+    return folder;
+  }
+
+  /**
+   * Makes <code>folder</code> the active index. The previously active index is
+   * left alone as searchers in other processes may still read it (they delete it
+   * once they have moved on); older generations are deleted.
+   */
+  public void activate(File folder) throws TsabException {
+    File previous = getActiveFolder();
+
+    File tmp = new File(root, POINTER_FILE + ".tmp");
+    File pointer = new File(root, POINTER_FILE);
+    try {
+      Writer out = new FileWriter(tmp);
+      try {
+        out.write(folder.getName());
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      throw new TsabException("Failed to write index pointer " + tmp, e);
+    }
+
+    // rename over an existing file is atomic on POSIX, other platforms need the delete first
+    if (!tmp.renameTo(pointer) && !(pointer.delete() && tmp.renameTo(pointer))) {
+      throw new TsabException("Failed to activate index " + folder);
+    }
+    log.info("Activated index generation " + folder);
+    markChanged();
+
+    File[] folders = root.listFiles();
+    if (folders == null) {
+      return;
+    }
+    for (File f : folders) {
+      if (f.isDirectory() && f.getName().startsWith(FOLDER_PREFIX) && !f.equals(folder) && !f.equals(previous)) {
+        delete(f);
+      }
+    }
+  }
+
+  /**
+   * Tells searchers in all processes that the active index has changed by
+   * writing a new stamp into {@value #CHANGE_FILE}. A failure is only logged,
+   * searchers then pick the change up with the next one.
+   */
+  public void markChanged() {
+    File marker = new File(root, CHANGE_FILE);
+    try {
+      Writer out = new FileWriter(marker);
+      try {
+        out.write(System.currentTimeMillis() + "." + System.nanoTime());
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      log.warn("Failed to write index change marker " + marker, e);
+    }
+  }
+
+  /**
+   * @return stamp written by the last {@link #markChanged()} of any process,
+   *         <code>null</code> if the index has never been marked as changed
+   */
+  public String getChangeStamp() throws TsabException {
+    File marker = new File(root, CHANGE_FILE);
+    if (!marker.exists()) {
+      return null;
+    }
+    try {
+      BufferedReader in = new BufferedReader(new FileReader(marker));
+      try {
+        String stamp = in.readLine();
+        return stamp == null ? "" : stamp;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new TsabException("Failed to read index change marker " + marker, e);
+    }
+  }
+
+  /**
+   * Deletes a retired index generation. Must only be called once no reader uses
+   * it any more.
+   */
+  public void delete(File folder) {
+    try {
+      if (folder.equals(getActiveFolder())) {
+        return;
+      }
+    } catch (TsabException e) {
+      log.warn("Not deleting index " + folder + ", active index unknown", e);
+      return;
+    }
+
+    log.info("Deleting retired index generation " + folder);
+
+    File[] files = folder.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        // the legacy index lives directly in the root, leave everything else there alone
+        if (f.isFile() && (!folder.equals(root) || IndexFileNameFilter.getFilter().accept(root, f.getName()))
+            && !f.delete()) {
+          log.warn("Failed to delete " + f);
+        }
+      }
+    }
+    if (!folder.equals(root) && !folder.delete()) {
+      log.warn("Failed to delete index folder " + folder);
+    }
+  }
+
+}
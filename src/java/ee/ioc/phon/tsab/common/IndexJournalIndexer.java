@@ -0,0 +1,206 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import ee.ioc.phon.tsab.dao.TsabDao;
+import ee.ioc.phon.tsab.dao.TsabDaoService;
+import ee.ioc.phon.tsab.dao.UnitOfWork;
+import ee.ioc.phon.tsab.domain.IndexJournalEntry;
+import ee.ioc.phon.tsab.domain.Transcription;
+
+/**
+ * Drains the index journal ({@link IndexJournalEntry}) into the active index.
+ * Repeated changes to the same recording are coalesced into one re-index.
+ * <p>
+ * How far the journal has been applied ({@link JournalPosition}) is stored in
+ * the commit data of the index itself, so every index generation knows how far
+ * it is. Journal ids that were skipped because their transaction had not
+ * committed yet are looked up again by every drain for
+ * {@link Constants#indexJournalGapTimeout} ms. A full rebuild records the
+ * position it started from and the entries written during the rebuild are
+ * applied once the new generation is active. Entries are kept for
+ * {@link Constants#indexJournalRetention} ms so that a rebuild running
+ * meanwhile can still catch up with them.
+ */
+public class IndexJournalIndexer {
+
+  private final static Logger log = Logger.getLogger(IndexJournalIndexer.class);
+
+  private static final int BATCH_SIZE = 500;
+
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Re-indexes every recording that has journal entries not applied to the
+   * active index yet, including entries that have turned up below ones already
+   * applied.
+   *
+   * @return number of recordings re-indexed
+   */
+  public synchronized int drain() throws TsabException {
+    TsabDao dao = TsabDaoService.getDao();
+    long now = System.currentTimeMillis();
+
+    JournalPosition position = getPosition();
+    for (JournalPosition.Gap gap : position.expire(now - Constants.indexJournalGapTimeout)) {
+      log.warn("Index journal entries " + gap.getFrom() + "-" + gap.getTo() + " never turned up, giving up on them");
+    }
+    int recordings = 0;
+
+    List<IndexJournalEntry> late = new ArrayList<IndexJournalEntry>();
+    for (JournalPosition.Gap gap : position.getGaps()) {
+      late.addAll(dao.getJournalEntries(gap.getFrom(), gap.getTo(), BATCH_SIZE));
+    }
+    if (!late.isEmpty()) {
+      recordings += apply(late, position, now);
+    }
+
+    List<IndexJournalEntry> entries;
+    do {
+      entries = dao.getJournalEntries(position.getApplied() + 1, Long.MAX_VALUE, BATCH_SIZE);
+      if (entries.isEmpty()) {
+        break;
+      }
+      recordings += apply(entries, position, now);
+    } while (entries.size() == BATCH_SIZE);
+
+    if (recordings > 0) {
+      // releases the write lock so that the CLI can write meanwhile
+      Search.closeIndexWriter();
+      dao.purgeJournal(position.getApplied(), new Date(now - Constants.indexJournalRetention));
+    }
+
+    return recordings;
+  }
+
+  private int apply(List<IndexJournalEntry> entries, JournalPosition position, long now) throws TsabException {
+    TsabDao dao = TsabDaoService.getDao();
+
+    Set<Long> ids = new LinkedHashSet<Long>();
+    for (IndexJournalEntry entry : entries) {
+      ids.add(entry.getTranscriptionId());
+      position.applied(entry.getId(), now);
+    }
+
+    for (Long id : ids) {
+      Transcription t = dao.getTranscriptionById(id);
+      if (t == null) {
+        Search.removeTranscription(id.toString());
+      } else {
+        Search.indexTranscription(t);
+      }
+    }
+
+    Search.getIndexWriter().commit(position.toCommitData());
+
+    // after the commit, so that they are not looked up again on the old index
+    List<String> tids = new ArrayList<String>(ids.size());
+    for (Long id : ids) {
+      tids.add(id.toString());
+    }
+    Search.getRelatedRecordings().invalidate(tids);
+    log.debug("Applied index journal up to " + position + ": " + ids.size() + " recordings from " + entries.size()
+        + " entries");
+    return ids.size();
+  }
+
+  /**
+   * @return how far the active index has applied the journal
+   */
+  public JournalPosition getPosition() throws TsabException {
+    try {
+      Directory dir = FSDirectory.open(Search.getIndexGenerations().getActiveFolder());
+      if (!IndexReader.indexExists(dir)) {
+        return new JournalPosition(0);
+      }
+      return JournalPosition.fromCommitData(IndexReader.getCommitUserData(dir));
+    } catch (IOException e) {
+      throw new TsabException("Failed to read index commit data!", e);
+    }
+  }
+
+  /**
+   * Must be called before a rebuild reads the recordings. The entries visible
+   * now are covered by the rebuild, the ids of entries whose transactions are
+   * still running are left as gaps.
+   *
+   * @return journal position of an index rebuilt from the recordings read
+   *         after this call
+   */
+  public JournalPosition getRebuildPosition() throws TsabException {
+    TsabDao dao = TsabDaoService.getDao();
+    long now = System.currentTimeMillis();
+
+    // older entries are not waited for anyway, see drain()
+    JournalPosition position = new JournalPosition(dao.getLastJournalId(new Date(now
+        - Constants.indexJournalGapTimeout)));
+    List<IndexJournalEntry> entries;
+    do {
+      entries = dao.getJournalEntries(position.getApplied() + 1, Long.MAX_VALUE, BATCH_SIZE);
+      for (IndexJournalEntry entry : entries) {
+        position.applied(entry.getId(), now);
+      }
+    } while (entries.size() == BATCH_SIZE);
+    return position;
+  }
+
+  /**
+   * Starts draining the journal in the background every <code>interval</code>
+   * milliseconds.
+   */
+  public synchronized void start(long interval) {
+    if (scheduler != null) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "tsab-index-journal");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        UnitOfWork unit = UnitOfWork.begin("index journal");
+        try {
+          int count = drain();
+          if (count > 0) {
+            log.info("Re-indexed " + count + " changed recordings");
+          }
+        } catch (Exception e) {
+          log.warn("Failed to drain index journal!", e);
+        } finally {
+          unit.end();
+        }
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  public void stop() {
+    ScheduledExecutorService s;
+    synchronized (this) {
+      s = scheduler;
+      scheduler = null;
+    }
+    if (s != null) {
+      s.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,271 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Keeps one shared, reference-counted {@link IndexSearcher} per index
+ * generation. Callers must pair every {@link #acquire()} with a
+ * {@link #release(IndexSearcher)} in a finally block. The underlying reader is
+ * reopened (only changed segments are loaded) when the index on disk has
+ * changed and is closed once the last caller holding it releases it.
+ * <p>
+ * When a rebuilt index generation is activated (see {@link IndexGenerations})
+ * the searcher switches over to it and deletes the folder of the old generation
+ * once the last reader on it has been released.
+ * <p>
+ * Whether the index has changed is decided by the change marker of
+ * {@link IndexGenerations}, which writers of all processes update on commit.
+ * With {@link #startWatching()} a background thread polls it, so that changes
+ * made by another process are picked up within the check interval even when no
+ * searches come in, and registered listeners can drop their caches.
+ */
+public class IndexSearcherManager {
+
+  private final static Logger log = Logger.getLogger(IndexSearcherManager.class);
+
+  private final IndexGenerations generations;
+
+  private final long checkInterval;
+
+  private final Object reopenLock = new Object();
+
+  private IndexSearcher current;
+
+  private File currentFolder;
+
+  // readers of generations that have been switched away from, and their folders
+  private final Map<IndexReader, File> retired = Collections.synchronizedMap(new IdentityHashMap<IndexReader, File>());
+
+  private volatile long lastCheck;
+
+  private long generation = -1;
+
+  // change marker stamp the current searcher was opened or checked at
+  private volatile String changeStamp;
+
+  private final List<Runnable> reopenListeners = new CopyOnWriteArrayList<Runnable>();
+
+  private ScheduledExecutorService watcher;
+
+  /**
+   * @param generations locates the active index folder
+   * @param checkInterval minimum time in milliseconds between checks whether
+   *          the index has changed on disk
+   */
+  public IndexSearcherManager(IndexGenerations generations, long checkInterval) {
+    this.generations = generations;
+    this.checkInterval = checkInterval;
+  }
+
+  /**
+   * @return searcher over the most recent index generation. Must be released
+   *         with {@link #release(IndexSearcher)}.
+   * @throws TsabException if the index can not be opened
+   */
+  public IndexSearcher acquire() throws TsabException {
+    checkForChanges();
+
+    synchronized (this) {
+      if (current == null) {
+        throw new TsabException("Lucene index is not available!");
+      }
+      current.getIndexReader().incRef();
+      return current;
+    }
+  }
+
+  public void release(IndexSearcher searcher) {
+    if (searcher == null) {
+      return;
+    }
+    IndexReader reader = searcher.getIndexReader();
+    try {
+      reader.decRef();
+    } catch (IOException e) {
+      log.warn("Failed to release Lucene searcher!", e);
+    }
+    if (reader.getRefCount() == 0) {
+      File folder = retired.remove(reader);
+      if (folder != null) {
+        generations.delete(folder);
+      }
+    }
+  }
+
+  /**
+   * Opens the index if it is not open yet or reopens it if it has changed since
+   * the last check. Readers still held by other callers stay valid until they
+   * are released.
+   */
+  public void maybeReopen() throws TsabException {
+    synchronized (reopenLock) {
+      lastCheck = System.currentTimeMillis();
+
+      // read before opening, a commit made meanwhile leaves a newer stamp behind
+      String stamp = generations.getChangeStamp();
+      File active = generations.getActiveFolder();
+
+      IndexReader reader;
+      synchronized (this) {
+        reader = current == null ? null : current.getIndexReader();
+        if (reader != null) {
+          reader.incRef();
+        }
+      }
+
+      try {
+        IndexReader newReader;
+        if (reader == null || !active.equals(currentFolder)) {
+          newReader = IndexReader.open(FSDirectory.open(active), true);
+        } else if (!reader.isCurrent()) {
+          newReader = reader.reopen();
+        } else {
+          changeStamp = stamp;
+          return;
+        }
+
+        if (newReader != reader) {
+          log.debug("Opened Lucene index generation " + newReader.getVersion());
+          swap(new IndexSearcher(newReader), active);
+          fireReopened();
+        }
+        changeStamp = stamp;
+      } catch (IOException e) {
+        throw new TsabException("Failed to open Lucene index!", e);
+      } finally {
+        if (reader != null) {
+          try {
+            reader.decRef();
+          } catch (IOException e) {
+            log.warn("Failed to release Lucene reader!", e);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return number of the searcher generation currently served, incremented on
+   *         every reopen. <code>-1</code> if the index has not been opened yet.
+   */
+  public synchronized long getGeneration() {
+    return current == null ? -1 : generation;
+  }
+
+  /**
+   * Like {@link #getGeneration()}, but first picks up index changes the same way
+   * {@link #acquire()} does. Results computed for this generation may be cached
+   * until it changes.
+   */
+  public long getCurrentGeneration() throws TsabException {
+    checkForChanges();
+    return getGeneration();
+  }
+
+  private void checkForChanges() throws TsabException {
+    long now = System.currentTimeMillis();
+    if (now - lastCheck < checkInterval) {
+      return;
+    }
+    lastCheck = now;
+
+    // without a marker (index never written since the upgrade) the reader itself is asked
+    String stamp = generations.getChangeStamp();
+    synchronized (this) {
+      if (current != null && stamp != null && stamp.equals(changeStamp)) {
+        return;
+      }
+    }
+    maybeReopen();
+  }
+
+  /**
+   * Registers <code>listener</code> to be run after every reopen, e.g. to drop
+   * caches of results computed on the previous searcher.
+   */
+  public void addReopenListener(Runnable listener) {
+    reopenListeners.add(listener);
+  }
+
+  private void fireReopened() {
+    for (Runnable listener : reopenListeners) {
+      try {
+        listener.run();
+      } catch (RuntimeException e) {
+        log.warn("Index reopen listener failed!", e);
+      }
+    }
+  }
+
+  /**
+   * Starts checking for index changes in the background every check interval.
+   * Stopped by {@link #close()}.
+   */
+  public synchronized void startWatching() {
+    if (watcher != null) {
+      return;
+    }
+    watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "tsab-index-watch");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    watcher.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          checkForChanges();
+        } catch (Exception e) {
+          log.warn("Failed to check Lucene index for changes!", e);
+        }
+      }
+    }, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+  }
+
+  public void close() {
+    ScheduledExecutorService w;
+    synchronized (this) {
+      w = watcher;
+      watcher = null;
+    }
+    if (w != null) {
+      w.shutdownNow();
+    }
+    swap(null, null);
+  }
+
+  private void swap(IndexSearcher newSearcher, File folder) {
+    IndexSearcher old;
+    synchronized (this) {
+      old = current;
+      if (old != null && folder != null && !folder.equals(currentFolder)) {
+        retired.put(old.getIndexReader(), currentFolder);
+      }
+      current = newSearcher;
+      currentFolder = folder;
+      if (newSearcher != null) {
+        generation++;
+      }
+    }
+    release(old);
+  }
+
+}
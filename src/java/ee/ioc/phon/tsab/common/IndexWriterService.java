@@ -0,0 +1,396 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.LockObtainFailedException;
+
+/**
+ * One long-lived {@link IndexWriter} per process. Adds and deletes may be
+ * issued from any number of threads; changes are committed in batches once
+ * {@link Constants#indexCommitBatchSize} operations are pending or
+ * {@link Constants#indexCommitInterval} milliseconds have passed, whichever
+ * comes first. The index is never optimized on the write path.
+ * <p>
+ * Only one process can write to an index at a time. While another process (the
+ * CLI or the web application) holds the write lock, opening the writer waits
+ * for it for up to {@link Constants#indexWriteLockTimeout} milliseconds instead
+ * of failing right away, without blocking threads that do not need the writer.
+ * <p>
+ * {@link #close()} releases the write lock, it waits for operations using the
+ * writer to finish. The next operation opens the writer again.
+ */
+public class IndexWriterService {
+
+  private final static Logger log = Logger.getLogger(IndexWriterService.class);
+
+  private static final long MIN_LOCK_BACKOFF = 100;
+
+  private static final long MAX_LOCK_BACKOFF = 5000;
+
+  private final Directory directory;
+
+  private final Analyzer analyzer;
+
+  // only honoured by the first open, reopening after close() must not wipe the index
+  private boolean create;
+
+  private final Runnable onCommit;
+
+  private final Object commitLock = new Object();
+
+  // operations hold the read lock while using the writer, close() the write lock
+  private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+  // serializes opening the writer, which may wait for the write lock for minutes
+  private final Object openLock = new Object();
+
+  private final AtomicInteger pending = new AtomicInteger();
+
+  private final AtomicLong added = new AtomicLong();
+
+  private final AtomicLong deleted = new AtomicLong();
+
+  private final AtomicLong commits = new AtomicLong();
+
+  private IndexWriter writer;
+
+  // user data of the last commit of this writer, IndexWriter itself falls back to that of the commit it was opened on
+  private Map<String, String> userData;
+
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * @param directory index directory
+   * @param analyzer analyzer used for all added documents
+   * @param create <code>true</code> to start with an empty index, otherwise the
+   *          existing index is appended to (and created if missing). Only
+   *          applies to the first time the writer is opened.
+   * @param onCommit run after every commit, e.g. to notify searchers of other
+   *          processes. May be <code>null</code>.
+   */
+  public IndexWriterService(Directory directory, Analyzer analyzer, boolean create, Runnable onCommit) {
+    this.directory = directory;
+    this.analyzer = analyzer;
+    this.create = create;
+    this.onCommit = onCommit;
+  }
+
+  public void addDocument(Document doc) throws TsabException {
+    closeLock.readLock().lock();
+    try {
+      getWriter().addDocument(doc);
+    } catch (IOException e) {
+      throw new TsabException("Failed to add document to Lucene index!", e);
+    } finally {
+      closeLock.readLock().unlock();
+    }
+    added.incrementAndGet();
+    afterOperation();
+  }
+
+  /**
+   * Adds the documents of one recording. Cheaper than
+   * {@link #updateDocuments(Term, List)} when the index is known not to contain
+   * them, e.g. during a full rebuild.
+   */
+  public void addDocuments(List<Document> docs) throws TsabException {
+    closeLock.readLock().lock();
+    try {
+      IndexWriter w = getWriter();
+      for (Document doc : docs) {
+        w.addDocument(doc);
+      }
+    } catch (IOException e) {
+      throw new TsabException("Failed to add documents to Lucene index!", e);
+    } finally {
+      closeLock.readLock().unlock();
+    }
+    added.addAndGet(docs.size());
+    afterOperation();
+  }
+
+  /**
+   * Replaces all documents matching <code>term</code> with <code>docs</code>.
+   */
+  public void updateDocuments(Term term, List<Document> docs) throws TsabException {
+    closeLock.readLock().lock();
+    try {
+      IndexWriter w = getWriter();
+      w.deleteDocuments(term);
+      for (Document doc : docs) {
+        w.addDocument(doc);
+      }
+    } catch (IOException e) {
+      throw new TsabException("Failed to update documents for " + term + " in Lucene index!", e);
+    } finally {
+      closeLock.readLock().unlock();
+    }
+    deleted.incrementAndGet();
+    added.addAndGet(docs.size());
+    afterOperation();
+  }
+
+  public void deleteDocuments(Term term) throws TsabException {
+    closeLock.readLock().lock();
+    try {
+      getWriter().deleteDocuments(term);
+    } catch (IOException e) {
+      throw new TsabException("Failed to delete " + term + " from Lucene index!", e);
+    } finally {
+      closeLock.readLock().unlock();
+    }
+    deleted.incrementAndGet();
+    afterOperation();
+  }
+
+  public void deleteAll() throws TsabException {
+    closeLock.readLock().lock();
+    try {
+      getWriter().deleteAll();
+    } catch (IOException e) {
+      throw new TsabException("Failed to clear Lucene index!", e);
+    } finally {
+      closeLock.readLock().unlock();
+    }
+    afterOperation();
+    commit();
+  }
+
+  /**
+   * Makes all pending changes durable and visible to newly (re)opened readers.
+   */
+  public void commit() throws TsabException {
+    commit(null);
+  }
+
+  /**
+   * Like {@link #commit()} but also stores <code>userData</code> with the
+   * commit (see {@link org.apache.lucene.index.IndexReader#getCommitUserData}).
+   * Later commits and {@link #close()} keep the user data until it is
+   * replaced.
+   */
+  public void commit(Map<String, String> userData) throws TsabException {
+    closeLock.readLock().lock();
+    try {
+      commitLocked(userData);
+    } finally {
+      closeLock.readLock().unlock();
+    }
+  }
+
+  private void commitLocked(Map<String, String> userData) throws TsabException {
+    synchronized (commitLock) {
+      IndexWriter w;
+      if (userData != null) {
+        w = getWriter();
+      } else {
+        synchronized (this) {
+          w = writer;
+        }
+      }
+      if (w == null) {
+        return;
+      }
+      if (userData != null) {
+        this.userData = userData;
+      }
+      int ops = pending.getAndSet(0);
+      try {
+        w.commit(this.userData);
+      } catch (IOException e) {
+        pending.addAndGet(ops);
+        throw new TsabException("Failed to commit Lucene index!", e);
+      }
+      commits.incrementAndGet();
+      log.debug("Committed " + ops + " index operations");
+      committed();
+    }
+  }
+
+  /**
+   * Commits pending changes and releases the index write lock.
+   */
+  public void close() throws TsabException {
+    closeLock.writeLock().lock();
+    try {
+      closeLocked();
+    } finally {
+      closeLock.writeLock().unlock();
+    }
+  }
+
+  private void closeLocked() throws TsabException {
+    synchronized (commitLock) {
+      synchronized (this) {
+        if (scheduler != null) {
+          scheduler.shutdownNow();
+          scheduler = null;
+        }
+        if (writer == null) {
+          return;
+        }
+        try {
+          if (userData != null) {
+            // close() would commit without it, merges finishing meanwhile included
+            writer.commit(userData);
+            writer.waitForMerges();
+            writer.commit(userData);
+          }
+          writer.close();
+        } catch (IOException e) {
+          throw new TsabException("Failed to close Lucene writer!", e);
+        } finally {
+          writer = null;
+          userData = null;
+          pending.set(0);
+        }
+      }
+      commits.incrementAndGet();
+      committed();
+    }
+  }
+
+  public long getAddedCount() {
+    return added.get();
+  }
+
+  public long getDeletedCount() {
+    return deleted.get();
+  }
+
+  public long getCommitCount() {
+    return commits.get();
+  }
+
+  /**
+   * @param startTime time in milliseconds the measured work was started at
+   * @return human readable summary of the indexing throughput since
+   *         <code>startTime</code>
+   */
+  public String getThroughputReport(long startTime) {
+    long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+    long docs = added.get();
+    return "Indexed " + docs + " documents (" + deleted.get() + " deletes, " + commits.get() + " commits) in "
+        + (elapsed / 1000f) + "s; " + Math.round(docs * 1000d / elapsed) + " docs/s";
+  }
+
+  private void committed() {
+    if (onCommit != null) {
+      onCommit.run();
+    }
+  }
+
+  private void afterOperation() throws TsabException {
+    if (pending.incrementAndGet() >= Constants.indexCommitBatchSize) {
+      commit();
+    }
+  }
+
+  /**
+   * Must be called with the read lock of {@link #closeLock} held.
+   */
+  private IndexWriter getWriter() throws TsabException {
+    synchronized (this) {
+      if (writer != null) {
+        return writer;
+      }
+    }
+    synchronized (openLock) {
+      synchronized (this) {
+        if (writer != null) {
+          return writer;
+        }
+      }
+      IndexWriter w = openWriter();
+      create = false;
+      synchronized (this) {
+        writer = w;
+        startScheduler();
+      }
+      return w;
+    }
+  }
+
+  /**
+   * Opens the writer, waiting for writers of other processes to release the
+   * write lock. Each attempt itself waits for
+   * {@link IndexWriter#getDefaultWriteLockTimeout()}, the attempts back off
+   * from {@value #MIN_LOCK_BACKOFF} to {@value #MAX_LOCK_BACKOFF} ms. Only
+   * threads that need the writer wait meanwhile.
+   */
+  private IndexWriter openWriter() throws TsabException {
+    long deadline = System.currentTimeMillis() + Constants.indexWriteLockTimeout;
+    long backoff = MIN_LOCK_BACKOFF;
+    boolean waiting = false;
+    while (true) {
+      try {
+        IndexWriter w = create ? new IndexWriter(directory, analyzer, true, IndexWriter.MaxFieldLength.LIMITED)
+            : new IndexWriter(directory, analyzer, IndexWriter.MaxFieldLength.LIMITED);
+        w.setRAMBufferSizeMB(32);
+        if (waiting) {
+          log.info("Obtained Lucene write lock");
+        }
+        return w;
+      } catch (LockObtainFailedException e) {
+        long left = deadline - System.currentTimeMillis();
+        if (left <= 0) {
+          throw new TsabException("Lucene index is locked by another writer!", e);
+        }
+        if (!waiting) {
+          log.info("Lucene index is locked by another writer, waiting for it to finish");
+          waiting = true;
+        }
+        try {
+          Thread.sleep(Math.min(backoff, left));
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new TsabException("Interrupted while waiting for the Lucene write lock!", ie);
+        }
+        backoff = Math.min(backoff * 2, MAX_LOCK_BACKOFF);
+      } catch (IOException e) {
+        throw new TsabException("Failed to create Lucene writer!", e);
+      }
+    }
+  }
+
+  private void startScheduler() {
+    scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "tsab-index-commit");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        if (pending.get() == 0) {
+          return;
+        }
+        try {
+          commit();
+        } catch (TsabException e) {
+          log.warn("Scheduled index commit failed!", e);
+        }
+      }
+    }, Constants.indexCommitInterval, Constants.indexCommitInterval, TimeUnit.MILLISECONDS);
+  }
+
+}
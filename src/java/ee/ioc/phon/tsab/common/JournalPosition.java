@@ -0,0 +1,189 @@
+package ee.ioc.phon.tsab.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * How far an index generation has applied the index journal: every entry up to
+ * {@link #getApplied()} except the gaps. Journal ids are assigned when an entry
+ * is inserted but become visible only when its transaction commits, so an entry
+ * below one already applied may still turn up, e.g. from a long
+ * <code>trans-add</code>. Ids skipped over are kept as gaps, which are looked
+ * up again until their entries turn up or the gaps expire (the transaction was
+ * rolled back).
+ * <p>
+ * Stored in the commit user data of the index, see {@link #toCommitData()}.
+ */
+public class JournalPosition {
+
+  private final static Logger log = Logger.getLogger(JournalPosition.class);
+
+  /**
+   * Key of the last applied journal id in the index commit user data.
+   */
+  public static final String COMMIT_APPLIED = "tsab.journal";
+
+  /**
+   * Key of the gaps in the index commit user data, e.g. <code>17-17@1290000000000,20-22@1290000005000</code>.
+   */
+  public static final String COMMIT_GAPS = "tsab.journal.gaps";
+
+  // the oldest gap is given up beyond this many
+  private static final int MAX_GAPS = 100;
+
+  private long applied;
+
+  // in id order
+  private final List<Gap> gaps = new ArrayList<Gap>();
+
+  public JournalPosition(long applied) {
+    this.applied = applied;
+  }
+
+  /**
+   * @param data commit user data of an index, may be empty
+   */
+  public static JournalPosition fromCommitData(Map<String, String> data) {
+    String applied = data.get(COMMIT_APPLIED);
+    JournalPosition position = new JournalPosition(applied == null ? 0 : Long.parseLong(applied));
+    String gaps = data.get(COMMIT_GAPS);
+    if (gaps != null && gaps.length() > 0) {
+      for (String gap : gaps.split(",")) {
+        int dash = gap.indexOf('-');
+        int at = gap.indexOf('@');
+        position.gaps.add(new Gap(Long.parseLong(gap.substring(0, dash)), Long.parseLong(gap.substring(dash + 1, at)),
+            Long.parseLong(gap.substring(at + 1))));
+      }
+    }
+    return position;
+  }
+
+  public Map<String, String> toCommitData() {
+    Map<String, String> data = new HashMap<String, String>();
+    data.put(COMMIT_APPLIED, String.valueOf(applied));
+    StringBuilder sb = new StringBuilder();
+    for (Gap gap : gaps) {
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(gap);
+    }
+    data.put(COMMIT_GAPS, sb.toString());
+    return data;
+  }
+
+  /**
+   * @return id of the last journal entry applied
+   */
+  public long getApplied() {
+    return applied;
+  }
+
+  /**
+   * @return ids below {@link #getApplied()} not applied yet, in id order
+   */
+  public List<Gap> getGaps() {
+    return Collections.unmodifiableList(gaps);
+  }
+
+  /**
+   * Records that entry <code>id</code> has been applied. Entries above
+   * {@link #getApplied()} must be passed in id order; the ids skipped over
+   * become a gap noticed at <code>now</code>.
+   */
+  public void applied(long id, long now) {
+    if (id <= applied) {
+      fill(id);
+      return;
+    }
+    if (id > applied + 1) {
+      gaps.add(new Gap(applied + 1, id - 1, now));
+      if (gaps.size() > MAX_GAPS) {
+        log.warn("Too many gaps in the index journal, giving up on " + gaps.remove(0));
+      }
+    }
+    applied = id;
+  }
+
+  private void fill(long id) {
+    for (int i = 0; i < gaps.size(); i++) {
+      Gap gap = gaps.get(i);
+      if (id < gap.from || id > gap.to) {
+        continue;
+      }
+      gaps.remove(i);
+      if (id < gap.to) {
+        gaps.add(i, new Gap(id + 1, gap.to, gap.since));
+      }
+      if (id > gap.from) {
+        gaps.add(i, new Gap(gap.from, id - 1, gap.since));
+      }
+      return;
+    }
+  }
+
+  /**
+   * Gives up on the gaps noticed before <code>before</code>.
+   *
+   * @return the gaps given up
+   */
+  public List<Gap> expire(long before) {
+    List<Gap> expired = new ArrayList<Gap>();
+    for (int i = gaps.size() - 1; i >= 0; i--) {
+      if (gaps.get(i).since < before) {
+        expired.add(0, gaps.remove(i));
+      }
+    }
+    return expired;
+  }
+
+  @Override
+  public String toString() {
+    return applied + (gaps.isEmpty() ? "" : " " + gaps);
+  }
+
+  /**
+   * Journal ids <code>from</code> to <code>to</code> (inclusive) that were not
+   * visible when a later entry was applied.
+   */
+  public static class Gap {
+
+    private final long from;
+
+    private final long to;
+
+    private final long since;
+
+    public Gap(long from, long to, long since) {
+      this.from = from;
+      this.to = to;
+      this.since = since;
+    }
+
+    public long getFrom() {
+      return from;
+    }
+
+    public long getTo() {
+      return to;
+    }
+
+    /**
+     * @return when the gap was noticed (System.currentTimeMillis())
+     */
+    public long getSince() {
+      return since;
+    }
+
+    @Override
+    public String toString() {
+      return from + "-" + to + "@" + since;
+    }
+  }
+
+}
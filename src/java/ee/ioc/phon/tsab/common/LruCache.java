@@ -0,0 +1,73 @@
+package ee.ioc.phon.tsab.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small thread-safe cache that evicts the least recently used entry once
+ * <code>maxSize</code> entries are held. Counts hits and misses.
+ */
+public class LruCache<K, V> {
+
+  private final Map<K, V> map;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  public LruCache(final int maxSize) {
+    this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * @return cached value or <code>null</code> if there is none
+   */
+  public V get(K key) {
+    V value;
+    synchronized (map) {
+      value = map.get(key);
+    }
+    (value == null ? misses : hits).incrementAndGet();
+    return value;
+  }
+
+  public void put(K key, V value) {
+    synchronized (map) {
+      map.put(key, value);
+    }
+  }
+
+  public void clear() {
+    synchronized (map) {
+      map.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (map) {
+      return map.size();
+    }
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  @Override
+  public String toString() {
+    return "size=" + size() + ", hits=" + hits.get() + ", misses=" + misses.get();
+  }
+
+}
@@ -0,0 +1,111 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.PriorityQueue;
+
+/**
+ * Collects one page of hits in relevance order (score descending, document
+ * number ascending), starting right after the last hit of the previous page.
+ * Only the hits of the requested page are kept, so deep pages cost no more
+ * memory than the first one. All matches are counted, as are the matches
+ * after the previous page, which tell whether there is a next page.
+ */
+public class PagingCollector extends Collector {
+
+  private final HitQueue queue;
+
+  private final ScoreDoc after;
+
+  private Scorer scorer;
+
+  private int docBase;
+
+  private final int pageSize;
+
+  private int totalHits;
+
+  private int laterHits;
+
+  /**
+   * @param pageSize number of hits to collect
+   * @param after last hit of the previous page, <code>null</code> for the first
+   *          page
+   */
+  public PagingCollector(int pageSize, ScoreDoc after) {
+    this.queue = new HitQueue(pageSize);
+    this.pageSize = pageSize;
+    this.after = after;
+  }
+
+  @Override
+  public void setScorer(Scorer scorer) throws IOException {
+    this.scorer = scorer;
+  }
+
+  @Override
+  public void setNextReader(IndexReader reader, int docBase) throws IOException {
+    this.docBase = docBase;
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    totalHits++;
+
+    float score = scorer.score();
+    int globalDoc = docBase + doc;
+    if (after != null && (score > after.score || (score == after.score && globalDoc <= after.doc))) {
+      // on an earlier page
+      return;
+    }
+    laterHits++;
+    queue.insertWithOverflow(new ScoreDoc(globalDoc, score));
+  }
+
+  @Override
+  public boolean acceptsDocsOutOfOrder() {
+    return true;
+  }
+
+  public int getTotalHits() {
+    return totalHits;
+  }
+
+  /**
+   * @return <code>true</code> if there are hits after this page
+   */
+  public boolean hasMore() {
+    return laterHits > pageSize;
+  }
+
+  /**
+   * @return hits of the page in relevance order
+   */
+  public ScoreDoc[] getHits() {
+    ScoreDoc[] hits = new ScoreDoc[queue.size()];
+    for (int i = hits.length - 1; i >= 0; i--) {
+      hits[i] = queue.pop();
+    }
+    return hits;
+  }
+
+  /**
+   * Keeps the best hits, the worst of them on top.
+   */
+  private static class HitQueue extends PriorityQueue<ScoreDoc> {
+
+    HitQueue(int size) {
+      initialize(size);
+    }
+
+    @Override
+    protected boolean lessThan(ScoreDoc a, ScoreDoc b) {
+      return a.score == b.score ? a.doc > b.doc : a.score < b.score;
+    }
+  }
+
+}
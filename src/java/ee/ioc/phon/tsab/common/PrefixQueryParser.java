@@ -0,0 +1,53 @@
+package ee.ioc.phon.tsab.common;
+
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.MultiFieldQueryParser;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.Version;
+
+/**
+ * {@link MultiFieldQueryParser} that answers trailing wildcard terms ("kal*")
+ * from a prefix field filled by {@link PrefixTokenFilter} instead of
+ * enumerating the term dictionary. Like the {@link org.apache.lucene.search.PrefixQuery}
+ * it replaces, the resulting query gives all matches the same score. Prefixes
+ * longer than the indexed ones and fields without a prefix field fall back to
+ * the default behaviour.
+ */
+public class PrefixQueryParser extends MultiFieldQueryParser {
+
+  private final Map<String, String> prefixFields;
+
+  private final int maxPrefixLength;
+
+  /**
+   * @param prefixFields prefix field name for each searched field that has one
+   * @param maxPrefixLength longest prefix indexed in the prefix fields
+   */
+  public PrefixQueryParser(Version matchVersion, String[] fields, Analyzer analyzer,
+      Map<String, String> prefixFields, int maxPrefixLength) {
+    super(matchVersion, fields, analyzer);
+    this.prefixFields = prefixFields;
+    this.maxPrefixLength = maxPrefixLength;
+  }
+
+  @Override
+  protected Query getPrefixQuery(String field, String termStr) throws ParseException {
+    String prefixField = field == null ? null : prefixFields.get(field);
+    if (prefixField == null || termStr.length() == 0 || termStr.length() > maxPrefixLength
+        || termStr.indexOf('*') >= 0 || termStr.indexOf('?') >= 0) {
+      return super.getPrefixQuery(field, termStr);
+    }
+    if (getLowercaseExpandedTerms()) {
+      termStr = termStr.toLowerCase();
+    }
+    return new ConstantScoreQuery(new QueryWrapperFilter(new TermQuery(new Term(prefixField, termStr))));
+  }
+
+}
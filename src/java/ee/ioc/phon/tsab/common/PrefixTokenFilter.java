@@ -0,0 +1,69 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+
+/**
+ * Replaces every token with all of its prefixes up to <code>maxLength</code>
+ * characters ("kala" becomes "k", "ka", "kal", "kala"), so that a prefix query
+ * can be answered with a single term lookup.
+ */
+public final class PrefixTokenFilter extends TokenFilter {
+
+  private final int maxLength;
+
+  private final TermAttribute termAtt = addAttribute(TermAttribute.class);
+
+  private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+
+  private char[] term = new char[16];
+
+  private int termLength;
+
+  private int prefixLength;
+
+  private State state;
+
+  public PrefixTokenFilter(TokenStream input, int maxLength) {
+    super(input);
+    this.maxLength = maxLength;
+  }
+
+  @Override
+  public boolean incrementToken() throws IOException {
+    if (state != null && prefixLength < Math.min(termLength, maxLength)) {
+      prefixLength++;
+      restoreState(state);
+      termAtt.setTermBuffer(term, 0, prefixLength);
+      posIncAtt.setPositionIncrement(0);
+      return true;
+    }
+
+    if (!input.incrementToken()) {
+      state = null;
+      return false;
+    }
+
+    termLength = termAtt.termLength();
+    if (term.length < termLength) {
+      term = new char[termLength];
+    }
+    System.arraycopy(termAtt.termBuffer(), 0, term, 0, termLength);
+    state = captureState();
+
+    prefixLength = 1;
+    termAtt.setTermBuffer(term, 0, prefixLength);
+    return true;
+  }
+
+  @Override
+  public void reset() throws IOException {
+    super.reset();
+    state = null;
+  }
+
+}
@@ -0,0 +1,156 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.standard.StandardFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+import org.apache.lucene.util.Version;
+
+/**
+ * Marks the words of a text that start with one of the query terms, the same
+ * way prefix search matches them. The text is tokenized once and the matched
+ * words are wrapped in <code>&lt;strong&gt;</code> using the token offsets, so
+ * nothing is compiled per line. Create one instance per query and reuse it for
+ * all result lines; instances are thread-safe.
+ */
+public class QueryHighlighter {
+
+  /**
+   * {@link org.apache.lucene.analysis.standard.StandardAnalyzer} without the
+   * stop words, so that every word of the text can be highlighted.
+   */
+  private static final Analyzer ANALYZER = new Analyzer() {
+
+    @Override
+    public TokenStream tokenStream(String fieldName, Reader reader) {
+      return new LowerCaseFilter(new StandardFilter(new StandardTokenizer(Version.LUCENE_CURRENT, reader)));
+    }
+
+    @Override
+    public TokenStream reusableTokenStream(String fieldName, Reader reader) throws IOException {
+      Object[] streams = (Object[]) getPreviousTokenStream();
+      if (streams == null) {
+        Tokenizer source = new StandardTokenizer(Version.LUCENE_CURRENT, reader);
+        streams = new Object[] { source, new LowerCaseFilter(new StandardFilter(source)) };
+        setPreviousTokenStream(streams);
+      } else {
+        ((Tokenizer) streams[0]).reset(reader);
+      }
+      TokenStream stream = (TokenStream) streams[1];
+      stream.reset();
+      return stream;
+    }
+  };
+
+  private static final String START_TAG = "<strong>";
+
+  private static final String END_TAG = "</strong>";
+
+  private final String[] terms;
+
+  /**
+   * @param query words separated by white space, optionally followed by
+   *          <code>*</code>
+   */
+  public QueryHighlighter(String query) {
+    List<String> list = words(query);
+    this.terms = list.toArray(new String[list.size()]);
+  }
+
+  /**
+   * @return the lower cased words of <code>text</code> as they are matched
+   *         against query terms, in text order
+   */
+  static List<String> words(String text) {
+    List<String> list = new ArrayList<String>();
+    try {
+      TokenStream ts = ANALYZER.reusableTokenStream("", new StringReader(text));
+      TermAttribute termAtt = ts.addAttribute(TermAttribute.class);
+      while (ts.incrementToken()) {
+        list.add(termAtt.term());
+      }
+      ts.end();
+    } catch (IOException e) {
+      // can not happen with a StringReader
+      throw new IllegalStateException(e);
+    }
+    return list;
+  }
+
+  /**
+   * @return <code>text</code> with the words matching the query wrapped in
+   *         <code>&lt;strong&gt;</code>
+   */
+  public String highlight(String text) {
+    if (terms.length == 0 || text == null) {
+      return text;
+    }
+    StringWriter out = new StringWriter(text.length() + 32);
+    try {
+      highlight(text, out);
+    } catch (IOException e) {
+      // can not happen with a StringWriter
+      throw new IllegalStateException(e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Like {@link #highlight(String)}, but writes the highlighted text straight
+   * to <code>out</code> without building it in memory first.
+   */
+  public void highlight(String text, Writer out) throws IOException {
+    if (text == null) {
+      return;
+    }
+    int last = 0;
+    if (terms.length > 0) {
+      TokenStream ts = ANALYZER.reusableTokenStream("", new StringReader(text));
+      TermAttribute termAtt = ts.addAttribute(TermAttribute.class);
+      OffsetAttribute offsetAtt = ts.addAttribute(OffsetAttribute.class);
+      while (ts.incrementToken()) {
+        if (!matches(termAtt.termBuffer(), termAtt.termLength())) {
+          continue;
+        }
+        int start = offsetAtt.startOffset();
+        int end = offsetAtt.endOffset();
+        out.write(text, last, start - last);
+        out.write(START_TAG);
+        out.write(text, start, end - start);
+        out.write(END_TAG);
+        last = end;
+      }
+      ts.end();
+    }
+    out.write(text, last, text.length() - last);
+  }
+
+  private boolean matches(char[] buffer, int length) {
+    for (String term : terms) {
+      if (term.length() > length) {
+        continue;
+      }
+      int i = 0;
+      while (i < term.length() && term.charAt(i) == buffer[i]) {
+        i++;
+      }
+      if (i == term.length()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,55 @@
+package ee.ioc.phon.tsab.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A matching recording together with its best matching fragments.
+ */
+public class RecordingHit {
+
+  private final String uid;
+  private final String title;
+  private final String category;
+  private final String categoryId;
+  private final List<FragmentHit> fragments = new ArrayList<FragmentHit>();
+
+  public RecordingHit(String uid, String title, String category) {
+    this(uid, title, category, null);
+  }
+
+  public RecordingHit(String uid, String title, String category, String categoryId) {
+    this.uid = uid;
+    this.title = title;
+    this.category = category;
+    this.categoryId = categoryId;
+  }
+
+  /**
+   * @return id of the {@link ee.ioc.phon.tsab.domain.Transcription}
+   */
+  public String getUid() {
+    return uid;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public String getCategory() {
+    return category;
+  }
+
+  /**
+   * @return id of the {@link ee.ioc.phon.tsab.domain.Category}, only known for
+   *         recordings listed with {@link Search#getRecordings}
+   */
+  public String getCategoryId() {
+    return categoryId;
+  }
+
+  public List<FragmentHit> getFragments() {
+    return fragments;
+  }
+
+}
@@ -0,0 +1,204 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+
+/**
+ * Words of one recording mapped to the fragments they occur in, for finding a
+ * word within a recording. The words are held in a sorted array, so a word
+ * prefix is located by binary search, and every word points to the ascending
+ * numbers of its fragments. Built from the fragment documents of the search
+ * index by {@link #build(IndexReader, String)}; instances are immutable and
+ * thread-safe.
+ */
+public class RecordingTermIndex {
+
+  private static final int[] NONE = new int[0];
+
+  private static final FieldSelector FRAGMENT_FIELDS = new MapFieldSelector(new String[] { Search.FIELD_TYPE,
+      Search.FIELD_TIME, Search.FIELD_CONTENTS });
+
+  // start times of the fragments (ms), ascending
+  private final long[] times;
+
+  private final String[] terms;
+
+  // fragment numbers of every term, ascending
+  private final int[][] postings;
+
+  private RecordingTermIndex(long[] times, String[] terms, int[][] postings) {
+    this.times = times;
+    this.terms = terms;
+    this.postings = postings;
+  }
+
+  /**
+   * Reads the fragments of recording <code>tid</code> from <code>reader</code>
+   * and indexes their words.
+   */
+  public static RecordingTermIndex build(IndexReader reader, String tid) throws IOException {
+    List<Document> fragments = new ArrayList<Document>();
+    TermDocs td = reader.termDocs(new Term(Search.FIELD_TID, tid));
+    try {
+      while (td.next()) {
+        Document doc = reader.document(td.doc(), FRAGMENT_FIELDS);
+        if (Search.TYPE_FRAGMENT.equals(doc.get(Search.FIELD_TYPE))) {
+          fragments.add(doc);
+        }
+      }
+    } finally {
+      td.close();
+    }
+    Collections.sort(fragments, new Comparator<Document>() {
+      @Override
+      public int compare(Document a, Document b) {
+        long ta = Long.parseLong(a.get(Search.FIELD_TIME));
+        long tb = Long.parseLong(b.get(Search.FIELD_TIME));
+        return ta < tb ? -1 : (ta == tb ? 0 : 1);
+      }
+    });
+
+    long[] times = new long[fragments.size()];
+    Map<String, IntList> words = new TreeMap<String, IntList>();
+    for (int i = 0; i < times.length; i++) {
+      Document doc = fragments.get(i);
+      times[i] = Long.parseLong(doc.get(Search.FIELD_TIME));
+      for (String word : QueryHighlighter.words(doc.get(Search.FIELD_CONTENTS))) {
+        IntList list = words.get(word);
+        if (list == null) {
+          list = new IntList();
+          words.put(word, list);
+        }
+        list.addOnce(i);
+      }
+    }
+
+    String[] terms = words.keySet().toArray(new String[words.size()]);
+    int[][] postings = new int[terms.length][];
+    int t = 0;
+    for (IntList list : words.values()) {
+      postings[t++] = list.toArray();
+    }
+    return new RecordingTermIndex(times, terms, postings);
+  }
+
+  /**
+   * @param query words separated by white space, each matching the words of
+   *          the recording it is a prefix of
+   * @return start times (ms) of the fragments containing all words of
+   *         <code>query</code>, ascending
+   */
+  public long[] find(String query) {
+    int[] matches = null;
+    for (String word : QueryHighlighter.words(query)) {
+      int[] fragments = findPrefix(word);
+      matches = matches == null ? fragments : intersect(matches, fragments);
+      if (matches.length == 0) {
+        break;
+      }
+    }
+    if (matches == null) {
+      return new long[0];
+    }
+    long[] result = new long[matches.length];
+    for (int i = 0; i < matches.length; i++) {
+      result[i] = times[matches[i]];
+    }
+    return result;
+  }
+
+  /**
+   * @return number of fragments indexed
+   */
+  public int size() {
+    return times.length;
+  }
+
+  private int[] findPrefix(String prefix) {
+    int from = Arrays.binarySearch(terms, prefix);
+    if (from < 0) {
+      from = -from - 1;
+    }
+    int to = from;
+    while (to < terms.length && terms[to].startsWith(prefix)) {
+      to++;
+    }
+    if (to - from <= 1) {
+      return to == from ? NONE : postings[from];
+    }
+
+    // union of the fragments of all words with the prefix
+    boolean[] hit = new boolean[times.length];
+    int count = 0;
+    for (int t = from; t < to; t++) {
+      for (int f : postings[t]) {
+        if (!hit[f]) {
+          hit[f] = true;
+          count++;
+        }
+      }
+    }
+    int[] union = new int[count];
+    for (int f = 0, i = 0; i < count; f++) {
+      if (hit[f]) {
+        union[i++] = f;
+      }
+    }
+    return union;
+  }
+
+  private static int[] intersect(int[] a, int[] b) {
+    int[] common = new int[Math.min(a.length, b.length)];
+    int n = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length;) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        common[n++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return n == common.length ? common : Arrays.copyOf(common, n);
+  }
+
+  /**
+   * Growable array of ascending fragment numbers.
+   */
+  private static class IntList {
+
+    private int[] values = new int[4];
+
+    private int size;
+
+    void addOnce(int value) {
+      if (size > 0 && values[size - 1] == value) {
+        return;
+      }
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+
+}
@@ -0,0 +1,343 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similar.MoreLikeThis;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Related recordings of every recording, computed with {@link MoreLikeThis} by
+ * a batch run over the whole index ({@link #build(File, int)}) and served from
+ * memory. The table is stored in the file {@value #FILE_NAME} of the index
+ * folder it was computed for and reloaded when it changes. Recordings missing
+ * from the table, e.g. added after the batch run, are looked up on first
+ * request and kept until the table is reloaded.
+ * <p>
+ * The table lags behind changes to the index, those drained by another
+ * process included. Its lists are therefore checked against the current
+ * searcher whenever its generation changes: recordings no longer in the index
+ * are left out and titles and categories are taken from the index.
+ */
+public class RelatedRecordings {
+
+  private final static Logger log = Logger.getLogger(RelatedRecordings.class);
+
+  public static final String FILE_NAME = "related";
+
+  public static final int MAX_RELATED = 5;
+
+  // how often to check whether the table on disk has changed (ms)
+  private static final long CHECK_INTERVAL = 1000;
+
+  private volatile Table table;
+
+  private volatile long lastCheck;
+
+  /**
+   * @return up to {@link #MAX_RELATED} recordings related to recording
+   *         <code>tid</code>, best match first
+   */
+  public List<RecordingHit> get(String tid) throws TsabException {
+    Table t = getTable();
+    long generation = Search.getIndexGeneration();
+    Checked checked = t.checked;
+    if (checked.generation != generation) {
+      checked = new Checked(generation);
+      t.checked = checked;
+    }
+    List<RecordingHit> related = checked.related.get(tid);
+    if (related == null) {
+      related = lookUp(t, tid);
+      checked.related.put(tid, related);
+    }
+    return related;
+  }
+
+  /**
+   * Drops the entries of changed recordings and the entries listing them, they
+   * are looked up again on their next request.
+   */
+  public void invalidate(Collection<String> tids) {
+    Table t = table;
+    if (t != null) {
+      Set<String> changed = new HashSet<String>(tids);
+      removeListing(t.related, changed);
+      removeListing(t.checked.related, changed);
+    }
+  }
+
+  private static void removeListing(Map<String, List<RecordingHit>> related, Set<String> tids) {
+    related.keySet().removeAll(tids);
+    for (Iterator<List<RecordingHit>> i = related.values().iterator(); i.hasNext();) {
+      for (RecordingHit hit : i.next()) {
+        if (tids.contains(hit.getUid())) {
+          i.remove();
+          break;
+        }
+      }
+    }
+  }
+
+  private List<RecordingHit> lookUp(Table t, String tid) throws TsabException {
+    IndexSearcher s = Search.acquireSearcher();
+    try {
+      List<RecordingHit> related = t.related.get(tid);
+      if (related != null) {
+        return check(s, related);
+      }
+      int doc = Search.getDocumentId(s, tid);
+      if (doc < 0) {
+        log.debug("Recording " + tid + " is not in the index");
+        return Collections.emptyList();
+      }
+      related = find(s, doc, tid);
+      t.related.put(tid, related);
+      return related;
+    } catch (IOException e) {
+      throw new TsabException("Failed to find related recordings!", e);
+    } finally {
+      Search.releaseSearcher(s);
+    }
+  }
+
+  /**
+   * @return <code>related</code> without the recordings missing from the
+   *         index of <code>s</code>, with their current titles and categories
+   */
+  private static List<RecordingHit> check(IndexSearcher s, List<RecordingHit> related) throws TsabException {
+    List<RecordingHit> checked = new ArrayList<RecordingHit>(related.size());
+    for (RecordingHit hit : related) {
+      Document d = Search.getDocument(s, hit.getUid());
+      if (d != null) {
+        checked.add(new RecordingHit(hit.getUid(), d.get(Search.FIELD_TITLE), d.get(Search.FIELD_CATEGORY)));
+      }
+    }
+    return Collections.unmodifiableList(checked);
+  }
+
+  private static List<RecordingHit> find(IndexSearcher s, int doc, String tid) throws IOException {
+    MoreLikeThis mlt = new MoreLikeThis(s.getIndexReader());
+    mlt.setFieldNames(new String[] { Search.FIELD_TITLE, Search.FIELD_CATEGORY, Search.FIELD_FULLTEXT });
+    mlt.setMinWordLen(3);
+    mlt.setBoost(true);
+
+    Query q = mlt.like(doc);
+
+    // the recording itself is usually the best match
+    TopDocs hits = s.search(q, Search.RECORDINGS_FILTER, MAX_RELATED + 1);
+
+    List<RecordingHit> related = new ArrayList<RecordingHit>(MAX_RELATED);
+    for (ScoreDoc sd : hits.scoreDocs) {
+      Document d = s.doc(sd.doc);
+      String uid = d.get(Search.FIELD_UID);
+      if (!uid.equals(tid) && related.size() < MAX_RELATED) {
+        related.add(new RecordingHit(uid, d.get(Search.FIELD_TITLE), d.get(Search.FIELD_CATEGORY)));
+      }
+    }
+    return related;
+  }
+
+  private Table getTable() throws TsabException {
+    Table t = table;
+    long now = System.currentTimeMillis();
+    if (t != null && now - lastCheck < CHECK_INTERVAL) {
+      return t;
+    }
+    synchronized (this) {
+      lastCheck = now;
+      File file = new File(Search.getIndexGenerations().getActiveFolder(), FILE_NAME);
+      t = table;
+      if (t == null || !file.equals(t.file) || file.lastModified() != t.lastModified) {
+        t = load(file);
+        table = t;
+      }
+      return t;
+    }
+  }
+
+  private static Table load(File file) throws TsabException {
+    Table t = new Table(file, file.lastModified());
+    if (!file.isFile()) {
+      log.info("No related recordings table in " + file.getParent() + ", looking them up on demand");
+      return t;
+    }
+    try {
+      BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          String[] cols = line.split("\t", -1);
+          List<RecordingHit> related = new ArrayList<RecordingHit>((cols.length - 1) / 3);
+          for (int i = 1; i + 2 < cols.length; i += 3) {
+            related.add(new RecordingHit(cols[i], cols[i + 1], cols[i + 2].length() == 0 ? null : cols[i + 2]));
+          }
+          t.related.put(cols[0], Collections.unmodifiableList(related));
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new TsabException("Failed to read related recordings from " + file, e);
+    }
+    log.info("Loaded related recordings of " + t.related.size() + " recordings from " + file);
+    return t;
+  }
+
+  /**
+   * Computes the related recordings of every recording in the index in
+   * <code>folder</code> and stores them there.
+   *
+   * @param threads number of parallel workers
+   * @return number of recordings processed
+   */
+  public static int build(File folder, int threads) throws TsabException {
+    final Map<String, List<RecordingHit>> table = new ConcurrentHashMap<String, List<RecordingHit>>();
+    final AtomicInteger failed = new AtomicInteger();
+
+    IndexReader reader = null;
+    try {
+      reader = IndexReader.open(FSDirectory.open(folder), true);
+      final IndexSearcher s = new IndexSearcher(reader);
+
+      ExecutorService pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<Runnable>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+      try {
+        TermDocs td = reader.termDocs(new Term(Search.FIELD_TYPE, Search.TYPE_RECORDING));
+        try {
+          while (td.next()) {
+            final int doc = td.doc();
+            pool.execute(new Runnable() {
+              @Override
+              public void run() {
+                String tid = null;
+                try {
+                  tid = s.doc(doc).get(Search.FIELD_UID);
+                  table.put(tid, find(s, doc, tid));
+                } catch (Exception e) {
+                  failed.incrementAndGet();
+                  log.error("Failed to find related recordings of " + tid, e);
+                }
+              }
+            });
+          }
+        } finally {
+          td.close();
+        }
+      } finally {
+        pool.shutdown();
+        while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+          log.debug("Waiting for related recordings workers to finish");
+        }
+      }
+    } catch (IOException e) {
+      throw new TsabException("Failed to compute related recordings in " + folder, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TsabException("Interrupted while computing related recordings!", e);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          log.warn("Failed to close Lucene reader!", e);
+        }
+      }
+    }
+
+    if (failed.get() > 0) {
+      throw new TsabException("Failed to find related recordings of " + failed.get()
+          + " recordings, see log for details");
+    }
+
+    write(new File(folder, FILE_NAME), table);
+    return table.size();
+  }
+
+  private static void write(File file, Map<String, List<RecordingHit>> table) throws TsabException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try {
+      Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+      try {
+        for (Map.Entry<String, List<RecordingHit>> e : table.entrySet()) {
+          out.write(e.getKey());
+          for (RecordingHit hit : e.getValue()) {
+            out.write('\t' + hit.getUid() + '\t' + clean(hit.getTitle()) + '\t' + clean(hit.getCategory()));
+          }
+          out.write('\n');
+        }
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      throw new TsabException("Failed to write related recordings to " + tmp, e);
+    }
+    if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+      throw new TsabException("Failed to replace " + file);
+    }
+  }
+
+  private static String clean(String str) {
+    return str == null ? "" : str.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+  }
+
+  private static class Table {
+
+    final File file;
+
+    final long lastModified;
+
+    final Map<String, List<RecordingHit>> related = new ConcurrentHashMap<String, List<RecordingHit>>();
+
+    volatile Checked checked = new Checked(-1);
+
+    Table(File file, long lastModified) {
+      this.file = file;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /**
+   * Lists of the table checked against the searcher of one generation.
+   */
+  private static class Checked {
+
+    final long generation;
+
+    final Map<String, List<RecordingHit>> related = new ConcurrentHashMap<String, List<RecordingHit>>();
+
+    Checked(long generation) {
+      this.generation = generation;
+    }
+  }
+
+}
@@ -1,211 +1,935 @@
 package ee.ioc.phon.tsab.common;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.DateTools;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
-import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.document.NumericField;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.queryParser.MultiFieldQueryParser;
 import org.apache.lucene.queryParser.ParseException;
-import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanFilter;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilterClause;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeFilter;
+import org.apache.lucene.search.PrefixFilter;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.Searcher;
-import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.LockObtainFailedException;
 import org.apache.lucene.util.Version;
 
 import ee.ioc.phon.tsab.dao.TsabDaoService;
 import ee.ioc.phon.tsab.domain.Category;
 import ee.ioc.phon.tsab.domain.Transcription;
+import ee.ioc.phon.tsab.domain.TranscriptionFragment;
 
 public class Search {
 
-  public static IndexWriter getLuceneWriter() throws TsabException {
-    IndexWriter writer = null;
-      try {
-        writer = new IndexWriter(FSDirectory.open(Constants.luceneFolder), new StandardAnalyzer(Version.LUCENE_CURRENT),
-            Constants.createNewLuceneIndex, IndexWriter.MaxFieldLength.LIMITED);
-      } catch (CorruptIndexException e) {
-        throw new TsabException("Failed to create Lucene writer!", e);
-      } catch (LockObtainFailedException e) {
-        throw new TsabException("Failed to create Lucene writer!", e);
-      } catch (IOException e) {
-        throw new TsabException("Failed to create Lucene writer!", e);
-      }
-    return writer;
+  public static final String FIELD_TYPE = "type";
+  public static final String FIELD_UID = "uid";
+  public static final String FIELD_TID = "tid";
+  public static final String FIELD_TITLE = "title";
+  public static final String FIELD_CATEGORY = "category";
+  public static final String FIELD_CONTENTS = "contents";
+  public static final String FIELD_FULLTEXT = "fulltext";
+  public static final String FIELD_TIME = "time";
+  public static final String FIELD_SPEAKER = "speaker";
+  public static final String FIELD_TOPIC = "topic";
+  public static final String FIELD_TITLE_PREFIX = "title_prefix";
+  public static final String FIELD_CONTENTS_PREFIX = "contents_prefix";
+  public static final String FIELD_MONTH = "month";
+  public static final String FIELD_CATEGORY_ID = "category_id";
+
+  /**
+   * Recording time as a numeric field (milliseconds), on recording and fragment
+   * documents. Hits are narrowed down to a time range with the drill-down value
+   * of this field, see {@link #getDateRangeFilter(String)}.
+   */
+  public static final String FIELD_RECORDED = "recorded";
+
+  /**
+   * Fields search hits are counted by and can be narrowed down to. All of them
+   * are indexed untokenized, one value per document.
+   */
+  public static final String[] FACET_FIELDS = { FIELD_CATEGORY, FIELD_SPEAKER, FIELD_MONTH };
+
+  // values of FIELD_TYPE
+  public static final String TYPE_RECORDING = "recording";
+  public static final String TYPE_FRAGMENT = "fragment";
+
+  /**
+   * Matches only whole-recording documents, e.g. for related recordings.
+   */
+  public static final Filter RECORDINGS_FILTER = new CachingWrapperFilter(new QueryWrapperFilter(new TermQuery(
+      new Term(FIELD_TYPE, TYPE_RECORDING))));
+
+  /**
+   * Longest prefix indexed in the prefix fields. Longer prefix queries expand
+   * over the term dictionary, which is cheap for them.
+   */
+  public static final int MAX_PREFIX_LENGTH = 12;
+
+  /**
+   * A <code>speaker:</code> clause of a user query: a name in quotes or a single
+   * word. It restricts the hits to fragments of that speaker.
+   */
+  private static final Pattern SPEAKER_CLAUSE = Pattern.compile(FIELD_SPEAKER + ":(\"[^\"]*\"?|\\S+)");
+
+  /**
+   * Boolean operators of the query syntax, kept as typed by
+   * {@link #normalizeQuery(String)} and {@link #toPrefixQuery(String)}.
+   */
+  private static final Set<String> QUERY_OPERATORS = new HashSet<String>(Arrays.asList("AND", "OR", "NOT", "&&",
+      "||"));
+
+  /**
+   * Query syntax a word is searched as typed with, rather than as a prefix:
+   * wildcards, fuzzy and boost suffixes, fields and ranges.
+   */
+  private static final Pattern QUERY_SYNTAX = Pattern.compile("[*?~^:\\[\\]{}\"\\\\]");
+
+  private static final Map<String, String> PREFIX_FIELDS = new HashMap<String, String>();
+  static {
+    PREFIX_FIELDS.put(FIELD_TITLE, FIELD_TITLE_PREFIX);
+    PREFIX_FIELDS.put(FIELD_CONTENTS, FIELD_CONTENTS_PREFIX);
   }
-  
 
-  public static void clearIndex() throws TsabException {
-    IndexWriter writer = null;
-    try {
-      writer = new IndexWriter(FSDirectory.open(Constants.luceneFolder), new StandardAnalyzer(Version.LUCENE_CURRENT),
-          true, IndexWriter.MaxFieldLength.LIMITED);
-      writer.close();
-    } catch (Exception e) {
-      throw new TsabException("Failed to clear lucene index!", e);
+  // drill-down filters by field and value, they cache their bits per index segment
+  private static final LruCache<String, Filter> drillDownFilters = new LruCache<String, Filter>(200);
+
+  // word indexes of single recordings, keyed by searcher generation and recording
+  private static final LruCache<String, RecordingTermIndex> recordingIndexes = new LruCache<String, RecordingTermIndex>(
+      Constants.recordingIndexCacheSize);
+
+  private static IndexSearcherManager searcherManager;
+
+  private static IndexWriterService writerService;
+
+  private static IndexGenerations generations;
+
+  private static IndexJournalIndexer journalIndexer;
+
+  private static RelatedRecordings relatedRecordings;
+
+  private static TermSuggester termSuggester;
+
+  private static SpeakerList speakerList;
+
+  /**
+   * @return the process-wide index writer. Changes become visible to searchers
+   *         of all processes after the next batched commit.
+   */
+  public static synchronized IndexWriterService getIndexWriter() throws TsabException {
+    if (writerService == null) {
+      final IndexGenerations g = getIndexGenerations();
+      writerService = openIndexWriter(g.getActiveFolder(), Constants.createNewLuceneIndex, new Runnable() {
+        @Override
+        public void run() {
+          g.markChanged();
+        }
+      });
+    }
+    return writerService;
+  }
+
+  /**
+   * Commits and closes the process-wide writer so that the index write lock is
+   * free for other processes. Its next operation reopens it, so that threads
+   * still holding it do not leave a second writer behind.
+   */
+  public static synchronized void closeIndexWriter() throws TsabException {
+    if (writerService != null) {
+      writerService.close();
+    }
+  }
+
+  public static synchronized IndexJournalIndexer getJournalIndexer() {
+    if (journalIndexer == null) {
+      journalIndexer = new IndexJournalIndexer();
     }
+    return journalIndexer;
   }
 
-  public static IndexReader getLuceneReader() throws TsabException {
+  public static synchronized RelatedRecordings getRelatedRecordings() {
+    if (relatedRecordings == null) {
+      relatedRecordings = new RelatedRecordings();
+    }
+    return relatedRecordings;
+  }
+
+  public static synchronized TermSuggester getTermSuggester() {
+    if (termSuggester == null) {
+      termSuggester = new TermSuggester();
+    }
+    return termSuggester;
+  }
 
+  public static synchronized SpeakerList getSpeakerList() {
+    if (speakerList == null) {
+      speakerList = new SpeakerList();
+    }
+    return speakerList;
+  }
+
+  public static synchronized IndexGenerations getIndexGenerations() {
+    if (generations == null) {
+      generations = new IndexGenerations(Constants.luceneFolder);
+    }
+    return generations;
+  }
+
+  /**
+   * Opens a writer on a fresh index generation for a full rebuild. The live
+   * index is not touched until {@link #activateIndexGeneration(File)} is called
+   * with the folder the writer was opened on.
+   * 
+   * @see IndexGenerations#createFolder()
+   */
+  public static IndexWriterService openIndexBuilder(File folder) throws TsabException {
+    return openIndexWriter(folder, true, null);
+  }
+
+  /**
+   * Atomically switches searchers and the process-wide writer to a rebuilt
+   * index generation.
+   */
+  public static synchronized void activateIndexGeneration(File folder) throws TsabException {
     try {
-      return IndexReader.open(FSDirectory.open(Constants.luceneFolder), true);
-    } catch (Exception e) {
-      throw new TsabException("Failed to get lucene reader!", e);
+      closeIndexWriter();
+    } finally {
+      // the next getIndexWriter() opens the new generation
+      writerService = null;
     }
-    
+    getIndexGenerations().activate(folder);
   }
 
-  public static IndexSearcher getLuceneSearcher() {
-    IndexReader reader = null;
+  private static IndexWriterService openIndexWriter(File folder, boolean create, Runnable onCommit)
+      throws TsabException {
     try {
-      reader = IndexReader.open(FSDirectory.open(Constants.luceneFolder), true);
-    } catch (Exception e) {
-      e.printStackTrace();
-      return null;
+      return new IndexWriterService(FSDirectory.open(folder), getAnalyzer(), create, onCommit);
+    } catch (IOException e) {
+      throw new TsabException("Failed to open Lucene index directory " + folder, e);
     }
-    return new IndexSearcher(reader);
   }
 
-  public static Document getDocument(String code) {
+  /**
+   * @return analyzer used to index documents: {@link StandardAnalyzer} for all
+   *         fields, plus {@link PrefixTokenFilter} for the prefix fields
+   */
+  public static Analyzer getAnalyzer() {
+    PerFieldAnalyzerWrapper analyzer = new PerFieldAnalyzerWrapper(new StandardAnalyzer(Version.LUCENE_CURRENT));
+    Analyzer prefix = new Analyzer() {
+      private final Analyzer standard = new StandardAnalyzer(Version.LUCENE_CURRENT);
+
+      @Override
+      public TokenStream tokenStream(String fieldName, Reader reader) {
+        return new PrefixTokenFilter(standard.tokenStream(fieldName, reader), MAX_PREFIX_LENGTH);
+      }
+    };
+    for (String field : PREFIX_FIELDS.values()) {
+      analyzer.addAnalyzer(field, prefix);
+    }
+    return analyzer;
+  }
 
-    Query query = null;
-    Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_CURRENT);
+  public static void clearIndex() throws TsabException {
+    getIndexWriter().deleteAll();
+  }
 
-    QueryParser qp = new QueryParser(Version.LUCENE_CURRENT, "uid", analyzer);
+  /**
+   * Commits pending index changes and releases the writer and the shared
+   * searcher. Called when the application or a CLI command finishes.
+   */
+  public static synchronized void close() throws TsabException {
+    if (journalIndexer != null) {
+      journalIndexer.stop();
+    }
     try {
-      query = qp.parse(code);
-      Searcher s = Search.getLuceneSearcher();
-      TopDocs hits = s.search(query, 1);
+      closeIndexWriter();
+    } finally {
+      if (searcherManager != null) {
+        searcherManager.close();
+      }
+    }
+  }
 
-      Document doc = s.doc(hits.scoreDocs[0].doc);
+  /**
+   * @return manager of the shared searcher used by all search paths.
+   * @throws TsabException if the index directory can not be opened
+   */
+  public static synchronized IndexSearcherManager getSearcherManager() throws TsabException {
+    if (searcherManager == null) {
+      searcherManager = new IndexSearcherManager(getIndexGenerations(), Constants.indexChangeCheckInterval);
+    }
+    return searcherManager;
+  }
 
-      return doc;
+  /**
+   * @return shared searcher over the current index generation. Must be given
+   *         back with {@link #releaseSearcher(IndexSearcher)}.
+   */
+  public static IndexSearcher acquireSearcher() throws TsabException {
+    return getSearcherManager().acquire();
+  }
+
+  public static void releaseSearcher(IndexSearcher searcher) throws TsabException {
+    getSearcherManager().release(searcher);
+  }
 
-    } catch (Exception e) {
+  /**
+   * @return generation of the shared searcher, changes whenever committed index
+   *         changes become visible. Used to key caches of search results.
+   * @see IndexSearcherManager#getCurrentGeneration()
+   */
+  public static long getIndexGeneration() throws TsabException {
+    return getSearcherManager().getCurrentGeneration();
+  }
+
+  /**
+   * @return recording document with the given uid, <code>null</code> if there
+   *         is none
+   */
+  public static Document getDocument(IndexSearcher s, String uid) throws TsabException {
+    int doc = getDocumentId(s, uid);
+    if (doc < 0) {
       return null;
     }
+    try {
+      return s.doc(doc);
+    } catch (IOException e) {
+      throw new TsabException("Failed to load document of recording " + uid, e);
+    }
+  }
+
+  /**
+   * Looks the recording up directly in the postings of the untokenized
+   * <code>uid</code> field, skipping deleted documents.
+   * 
+   * @return number of the recording document with the given uid in the reader
+   *         of <code>s</code>, <code>-1</code> if there is none
+   */
+  public static int getDocumentId(IndexSearcher s, String uid) throws TsabException {
+    try {
+      TermDocs td = s.getIndexReader().termDocs(new Term(FIELD_UID, uid));
+      try {
+        return td.next() ? td.doc() : -1;
+      } finally {
+        td.close();
+      }
+    } catch (IOException e) {
+      throw new TsabException("Failed to look up recording " + uid, e);
+    }
   }
 
-  public static int getDocumentId(String code) {
+  /**
+   * @return query as typed by the user, trimmed, with white space collapsed and
+   *         in lower case except for the operators <code>AND</code>,
+   *         <code>OR</code> and <code>NOT</code>. Queries that normalize to the
+   *         same string have the same results.
+   */
+  public static String normalizeQuery(String queryString) {
+    StringBuilder query = new StringBuilder();
+    for (String word : queryString.trim().split("\\s+")) {
+      query.append(query.length() > 0 ? " " : "").append(QUERY_OPERATORS.contains(word) ? word : word.toLowerCase());
+    }
+    return query.toString();
+  }
 
-    Query query = null;
-    Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_CURRENT);
+  /**
+   * @return <code>queryString</code> with every word turned into a prefix
+   *         search ("kala mees" becomes "kala* mees*"), which is how user
+   *         queries are searched. <code>+</code>, <code>-</code> and
+   *         parentheses around a word are kept; operators, phrases in quotes,
+   *         <code>speaker:</code> clauses and words with other query syntax
+   *         (e.g. <code>kala~</code>) are left as they are.
+   */
+  public static String toPrefixQuery(String queryString) {
+    StringBuilder query = new StringBuilder();
+    Matcher m = SPEAKER_CLAUSE.matcher(queryString);
+    int start = 0;
+    while (m.find()) {
+      appendPrefixWords(query, queryString.substring(start, m.start()));
+      query.append(query.length() > 0 ? " " : "").append(m.group());
+      start = m.end();
+    }
+    appendPrefixWords(query, queryString.substring(start));
+    return query.toString();
+  }
 
-    QueryParser qp = new QueryParser(Version.LUCENE_CURRENT, "uid", analyzer);
-    try {
-      query = qp.parse(code);
-      Searcher s = Search.getLuceneSearcher();
-      TopDocs hits = s.search(query, 1);
+  private static void appendPrefixWords(StringBuilder query, String words) {
+    int i = 0;
+    while (i < words.length()) {
+      if (Character.isWhitespace(words.charAt(i))) {
+        i++;
+        continue;
+      }
+      int start = i;
+      while (i < words.length() && "+-!(".indexOf(words.charAt(i)) >= 0) {
+        i++;
+      }
+      String clause;
+      if (i < words.length() && words.charAt(i) == '"') {
+        // a phrase, with any slop or boost after it
+        int close = words.indexOf('"', i + 1);
+        i = endOfWord(words, close < 0 ? words.length() : close + 1);
+        clause = words.substring(start, i);
+      } else {
+        int end = endOfWord(words, i);
+        clause = words.substring(start, i) + toPrefixWord(words.substring(i, end));
+        i = end;
+      }
+      query.append(query.length() > 0 ? " " : "").append(clause);
+    }
+  }
 
-      return hits.scoreDocs[0].doc;
+  private static int endOfWord(String words, int i) {
+    while (i < words.length() && !Character.isWhitespace(words.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
 
-    } catch (Exception e) {
-      return 0;
+  private static String toPrefixWord(String word) {
+    if (QUERY_OPERATORS.contains(word)) {
+      return word;
+    }
+    int end = word.length();
+    while (end > 0 && word.charAt(end - 1) == ')') {
+      end--;
     }
+    if (end == 0 || QUERY_SYNTAX.matcher(word.substring(0, end)).find()) {
+      return word;
+    }
+    return word.substring(0, end) + "*" + word.substring(end);
+  }
+
+  /**
+   * @return <code>queryString</code> without its <code>speaker:</code> clauses,
+   *         i.e. just the words searched from the text, e.g. for highlighting
+   */
+  public static String getTextQuery(String queryString) {
+    return SPEAKER_CLAUSE.matcher(queryString).replaceAll(" ").trim().replaceAll("\\s+", " ");
   }
 
+  /**
+   * @param queryString words searched from <code>title</code> and
+   *          <code>contents</code> in {@link MultiFieldQueryParser} syntax,
+   *          optionally with <code>speaker:</code> clauses. Hits must be
+   *          fragments of one of the given speakers, whose names are matched
+   *          regardless of case.
+   */
   public static Query getQuery(String queryString) throws TsabException {
 
     Query query = null;
-    Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_CURRENT);
+    String text = getTextQuery(queryString);
+    if (text.length() > 0) {
+      Analyzer analyzer = new StandardAnalyzer(Version.LUCENE_CURRENT);
+      MultiFieldQueryParser qp = new PrefixQueryParser(Version.LUCENE_CURRENT, new String[] { FIELD_TITLE,
+          FIELD_CONTENTS }, analyzer, PREFIX_FIELDS, MAX_PREFIX_LENGTH);
+      try {
+        query = qp.parse(text);
 
-    MultiFieldQueryParser qp = new MultiFieldQueryParser(Version.LUCENE_CURRENT, new String[] { "title", "contents" },
-        analyzer);
+      } catch (ParseException e) {
+        throw new TsabException("Failed to parse query!", e);
+      }
+    }
+
+    BooleanQuery speakers = null;
+    Matcher m = SPEAKER_CLAUSE.matcher(queryString);
+    while (m.find()) {
+      if (speakers == null) {
+        speakers = new BooleanQuery();
+      }
+      // speaker names are indexed as they are, but queries are lower cased
+      String name = m.group(1).replace("\"", "");
+      String indexed = getSpeakerList().resolve(name);
+      Term term = new Term(FIELD_SPEAKER, indexed == null ? name : indexed);
+      speakers.add(new TermQuery(term), BooleanClause.Occur.SHOULD);
+    }
+    if (speakers == null) {
+      if (query == null) {
+        throw new TsabException("Search query not specified!");
+      }
+      return query;
+    }
+    if (query == null) {
+      return speakers;
+    }
+    BooleanQuery both = new BooleanQuery();
+    both.add(query, BooleanClause.Occur.MUST);
+    both.add(speakers, BooleanClause.Occur.MUST);
+    return both;
+  }
+
+  /**
+   * @param drillDown value per {@link #FACET_FIELDS facet field} the hits must
+   *          have. A year (<code>yyyy</code>) selects all months of it. The
+   *          value of {@link #FIELD_RECORDED} is a date range, see
+   *          {@link #getDateRangeFilter(String)}.
+   * @return filter matching documents with all the given values,
+   *         <code>null</code> if <code>drillDown</code> is empty
+   * @throws TsabException if a field is not a facet field or a value is not
+   *           valid
+   */
+  public static Filter getDrillDownFilter(Map<String, String> drillDown) throws TsabException {
+    if (drillDown == null || drillDown.isEmpty()) {
+      return null;
+    }
+    BooleanFilter filter = new BooleanFilter();
+    for (Map.Entry<String, String> e : drillDown.entrySet()) {
+      Filter clause;
+      if (FIELD_RECORDED.equals(e.getKey())) {
+        clause = getDateRangeFilter(e.getValue());
+      } else if (Arrays.asList(FACET_FIELDS).contains(e.getKey())) {
+        clause = getDrillDownFilter(e.getKey(), e.getValue());
+      } else {
+        throw new TsabException("Unknown facet: " + e.getKey());
+      }
+      filter.add(new FilterClause(clause, BooleanClause.Occur.MUST));
+    }
+    return filter;
+  }
+
+  /**
+   * @param range <code>from..to</code>, both ends given as a year
+   *          (<code>yyyy</code>), month (<code>yyyy-MM</code>) or day
+   *          (<code>yyyy-MM-dd</code>) and included as a whole, e.g.
+   *          <code>2009..2010</code>. Either end may be left out. Without
+   *          <code>..</code> just the given period is selected.
+   * @return filter matching documents recorded within <code>range</code>
+   * @throws TsabException if <code>range</code> is not valid
+   */
+  public static Filter getDateRangeFilter(String range) throws TsabException {
+    int dots = range.indexOf("..");
+    String from = dots < 0 ? range : range.substring(0, dots).trim();
+    String to = dots < 0 ? range : range.substring(dots + 2).trim();
+    if (from.length() == 0 && to.length() == 0) {
+      throw new TsabException("Invalid date range: " + range);
+    }
+    return getDateRangeFilter(from.length() == 0 ? null : parsePeriod(from, false), to.length() == 0 ? null
+        : parsePeriod(to, true));
+  }
+
+  /**
+   * @return filter matching documents recorded at or after <code>from</code>
+   *         and before <code>to</code>. A <code>null</code> end is open.
+   */
+  public static Filter getDateRangeFilter(Date from, Date to) {
+    Long min = from == null ? null : from.getTime();
+    Long max = to == null ? null : to.getTime();
+    String key = FIELD_RECORDED + ":" + min + ".." + max;
+    Filter filter = drillDownFilters.get(key);
+    if (filter == null) {
+      filter = new CachingWrapperFilter(NumericRangeFilter.newLongRange(FIELD_RECORDED, min, max, true, false));
+      drillDownFilters.put(key, filter);
+    }
+    return filter;
+  }
+
+  /**
+   * @param end <code>true</code> for the end of the period,
+   *          <code>false</code> for its start
+   */
+  static Date parsePeriod(String period, boolean end) throws TsabException {
+    String pattern;
+    int unit;
+    switch (period.length()) {
+    case 4:
+      pattern = "yyyy";
+      unit = Calendar.YEAR;
+      break;
+    case 7:
+      pattern = "yyyy-MM";
+      unit = Calendar.MONTH;
+      break;
+    case 10:
+      pattern = "yyyy-MM-dd";
+      unit = Calendar.DAY_OF_MONTH;
+      break;
+    default:
+      throw new TsabException("Invalid date: " + period);
+    }
+    SimpleDateFormat format = new SimpleDateFormat(pattern);
+    format.setLenient(false);
+    ParsePosition pos = new ParsePosition(0);
+    Date date = format.parse(period, pos);
+    if (date == null || pos.getIndex() != period.length()) {
+      throw new TsabException("Invalid date: " + period);
+    }
+    Calendar c = Calendar.getInstance();
+    c.setTime(date);
+    if (end) {
+      c.add(unit, 1);
+    }
+    return c.getTime();
+  }
+
+  private static Filter getDrillDownFilter(String field, String value) {
+    String key = field + ":" + value;
+    Filter filter = drillDownFilters.get(key);
+    if (filter == null) {
+      if (FIELD_MONTH.equals(field) && value.length() == 4) {
+        filter = new PrefixFilter(new Term(field, value + "-"));
+      } else {
+        filter = new QueryWrapperFilter(new TermQuery(new Term(field, value)));
+      }
+      filter = new CachingWrapperFilter(filter);
+      drillDownFilters.put(key, filter);
+    }
+    return filter;
+  }
+
+  /**
+   * Searches fragment and recording documents and groups the hits by recording
+   * in one pass with a {@link GroupingCollector}: recordings are ranked by
+   * their best hit and keep their best fragment hits. Everything needed to
+   * render a playable hit is read from the index.
+   * 
+   * @param queryString query in {@link MultiFieldQueryParser} syntax over
+   *          <code>title</code> and <code>contents</code>
+   * @param filter restricts the hits, e.g. {@link #getDrillDownFilter(Map)}. May
+   *          be <code>null</code>.
+   * @param maxRecordings maximum number of recordings returned
+   * @param fragmentsPerRecording maximum number of fragments per recording
+   */
+  public static SearchResult search(String queryString, Filter filter, int maxRecordings, int fragmentsPerRecording)
+      throws TsabException {
+
+    Query q = getQuery(queryString);
+
+    IndexSearcher s = acquireSearcher();
+    try {
+      GroupingCollector grouping = new GroupingCollector(maxRecordings, fragmentsPerRecording);
+      FacetCollector facets = new FacetCollector(grouping, FACET_FIELDS);
+      s.search(q, filter, facets);
+
+      List<RecordingHit> recordings = new ArrayList<RecordingHit>();
+      for (GroupingCollector.Group group : grouping.getGroups()) {
+        Document best = s.doc(group.getBestDoc());
+        RecordingHit hit = new RecordingHit(group.getTid(), best.get(FIELD_TITLE), best.get(FIELD_CATEGORY));
+        for (ScoreDoc sd : group.getFragmentHits()) {
+          Document doc = s.doc(sd.doc);
+          hit.getFragments().add(
+              new FragmentHit(Long.parseLong(doc.get(FIELD_TIME)), doc.get(FIELD_SPEAKER), doc.get(FIELD_TOPIC), doc
+                  .get(FIELD_CONTENTS), sd.score));
+        }
+        recordings.add(hit);
+      }
+
+      return new SearchResult(grouping.getTotalHits(), recordings, facets.getFacets());
+    } catch (IOException e) {
+      throw new TsabException("Failed to search!", e);
+    } finally {
+      releaseSearcher(s);
+    }
+  }
+
+  /**
+   * Returns one page of hits in relevance order, with the hit counts per facet
+   * value. Unlike {@link #search(String, Filter, int, int)} hits are not grouped by
+   * recording. Later pages are requested with the cursor returned with the
+   * previous one; only the hits of the requested page are collected. A cursor
+   * is only valid for the version of the index it was returned from: once the
+   * index has changed it is rejected, as its hits would repeat or skip some,
+   * and paging has to start over from the first page.
+   * 
+   * @param queryString query in {@link MultiFieldQueryParser} syntax over
+   *          <code>title</code> and <code>contents</code>
+   * @param filter restricts the hits, e.g. {@link #getDrillDownFilter(Map)}. May
+   *          be <code>null</code>.
+   * @param cursor {@link SearchPage#getNextCursor()} of the previous page,
+   *          <code>null</code> for the first page
+   * @param pageSize maximum number of hits returned
+   * @throws TsabException if the query or the cursor is not valid, or the
+   *           cursor is from an older version of the index
+   */
+  public static SearchPage searchPage(String queryString, Filter filter, String cursor, int pageSize)
+      throws TsabException {
+
+    Query q = getQuery(queryString);
+
+    IndexSearcher s = acquireSearcher();
+    try {
+      long version = s.getIndexReader().getVersion();
+      ScoreDoc after = cursor == null ? null : parseCursor(cursor, version);
+      PagingCollector collector = new PagingCollector(pageSize, after);
+      FacetCollector facets = new FacetCollector(collector, FACET_FIELDS);
+      s.search(q, filter, facets);
+
+      ScoreDoc[] page = collector.getHits();
+      List<SearchHit> hits = new ArrayList<SearchHit>(page.length);
+      for (ScoreDoc sd : page) {
+        Document doc = s.doc(sd.doc);
+        String time = doc.get(FIELD_TIME);
+        hits.add(new SearchHit(doc.get(FIELD_TID), doc.get(FIELD_TYPE), doc.get(FIELD_TITLE), doc
+            .get(FIELD_CATEGORY), time == null ? null : Long.valueOf(time), doc.get(FIELD_SPEAKER), doc
+            .get(FIELD_TOPIC), doc.get(FIELD_CONTENTS), sd.score));
+      }
+
+      String next = collector.hasMore() ? toCursor(version, page[page.length - 1]) : null;
+
+      return new SearchPage(collector.getTotalHits(), hits, facets.getFacets(), next);
+    } catch (IOException e) {
+      throw new TsabException("Failed to search!", e);
+    } finally {
+      releaseSearcher(s);
+    }
+  }
+
+  /**
+   * @return cursor of the page after <code>last</code>:
+   *         <code>&lt;index version&gt;.&lt;score bits&gt;.&lt;doc&gt;</code>, the
+   *         first two in hex
+   */
+  static String toCursor(long version, ScoreDoc last) {
+    return Long.toHexString(version) + "." + Integer.toHexString(Float.floatToIntBits(last.score)) + "." + last.doc;
+  }
+
+  /**
+   * @param version version of the index searched
+   * @return last hit of the previous page
+   * @throws TsabException if <code>cursor</code> is not valid or from another
+   *           version of the index
+   */
+  static ScoreDoc parseCursor(String cursor, long version) throws TsabException {
+    String[] parts = cursor.split("\\.");
+    if (parts.length != 3) {
+      throw new TsabException("Invalid search cursor: " + cursor);
+    }
+    ScoreDoc after;
+    long cursorVersion;
     try {
-      query = qp.parse(queryString);
+      cursorVersion = Long.parseLong(parts[0], 16);
+      after = new ScoreDoc(Integer.parseInt(parts[2]), Float.intBitsToFloat((int) Long.parseLong(parts[1], 16)));
+    } catch (RuntimeException e) {
+      throw new TsabException("Invalid search cursor: " + cursor, e);
+    }
+    if (cursorVersion != version) {
+      throw new TsabException("The index has changed since search cursor " + cursor
+          + " was returned, start from the first page again");
+    }
+    return after;
+  }
 
-    } catch (ParseException e) {
-      throw new TsabException("Failed to parse query!", e);
+  /**
+   * Lists the recordings recorded at or after <code>from</code> and before
+   * <code>to</code> from the index, e.g. for the calendar.
+   * 
+   * @return recordings by title, without fragments
+   */
+  public static List<RecordingHit> getRecordings(Date from, Date to) throws TsabException {
+    IndexSearcher s = acquireSearcher();
+    try {
+      final List<Integer> docs = new ArrayList<Integer>();
+      s.search(new TermQuery(new Term(FIELD_TYPE, TYPE_RECORDING)), getDateRangeFilter(from, to), new Collector() {
+        private int docBase;
+
+        @Override
+        public void setScorer(Scorer scorer) {
+        }
+
+        @Override
+        public void setNextReader(IndexReader reader, int docBase) {
+          this.docBase = docBase;
+        }
+
+        @Override
+        public void collect(int doc) {
+          docs.add(docBase + doc);
+        }
+
+        @Override
+        public boolean acceptsDocsOutOfOrder() {
+          return true;
+        }
+      });
+
+      List<RecordingHit> recordings = new ArrayList<RecordingHit>(docs.size());
+      for (int doc : docs) {
+        Document d = s.doc(doc);
+        recordings.add(new RecordingHit(d.get(FIELD_UID), d.get(FIELD_TITLE), d.get(FIELD_CATEGORY), d
+            .get(FIELD_CATEGORY_ID)));
+      }
+      Collections.sort(recordings, new Comparator<RecordingHit>() {
+        @Override
+        public int compare(RecordingHit a, RecordingHit b) {
+          if (a.getTitle() == null || b.getTitle() == null) {
+            return a.getTitle() == null ? (b.getTitle() == null ? 0 : -1) : 1;
+          }
+          return a.getTitle().compareToIgnoreCase(b.getTitle());
+        }
+      });
+      return recordings;
+    } catch (IOException e) {
+      throw new TsabException("Failed to list recordings between " + from + " and " + to, e);
+    } finally {
+      releaseSearcher(s);
     }
+  }
 
-    return query;
+  /**
+   * Finds words within one recording. The words of the recording are indexed
+   * in memory on first use, see {@link RecordingTermIndex}.
+   * 
+   * @param query words to find, each matching words it is a prefix of
+   * @return start times (ms) of the fragments of recording <code>tid</code>
+   *         containing all words of <code>query</code>, ascending
+   */
+  public static long[] findInRecording(String tid, String query) throws TsabException {
+    // taken before acquiring, the searcher is at least as recent as the key
+    String key = getIndexGeneration() + ":" + tid;
+    IndexSearcher s = acquireSearcher();
+    try {
+      RecordingTermIndex index = recordingIndexes.get(key);
+      if (index == null) {
+        index = RecordingTermIndex.build(s.getIndexReader(), tid);
+        recordingIndexes.put(key, index);
+      }
+      return index.find(query);
+    } catch (IOException e) {
+      throw new TsabException("Failed to index words of recording " + tid, e);
+    } finally {
+      releaseSearcher(s);
+    }
   }
 
   public static void indexTranscription(Transcription trans) throws TsabException {
+    List<TranscriptionFragment> fragments = TsabDaoService.getDao().getTranscriptionFragments(trans);
+    getIndexWriter().updateDocuments(new Term(FIELD_TID, trans.getId().toString()), buildDocuments(trans, fragments));
+  }
+
+  /**
+   * Builds the index documents of a recording: one document for the recording
+   * itself (title, category and the full text for related recordings) and one
+   * per {@link TranscriptionFragment}.
+   */
+  public static List<Document> buildDocuments(Transcription trans, List<TranscriptionFragment> fragments) {
 
     Date recorded = trans.getRecorded();
+    String month = recorded == null ? null : new SimpleDateFormat("yyyy-MM").format(recorded);
     String code = trans.getId().toString();
     String fn = trans.getFn();
     String title = trans.getTitle();
     Category category = trans.getCategory();
 
-    List<String> v2 = TsabDaoService.getDao().getTranscriptionLines(trans);
+    List<Document> docs = new ArrayList<Document>(fragments.size() + 1);
 
-    String lines = "";
+    StringBuilder lines = new StringBuilder();
 
-    for (String h : v2) {
-      String line = h;
-      if (line != null) {
-        lines += line + "\n";
+    for (TranscriptionFragment frag : fragments) {
+      String text = frag.getText();
+      if (text == null) {
+        continue;
+      }
+      lines.append(text).append('\n');
+
+      Document doc = new Document();
+      doc.add(new Field(FIELD_TYPE, TYPE_FRAGMENT, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+      doc.add(new Field(FIELD_TID, code, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+      doc.add(new Field(FIELD_TIME, String.valueOf(frag.getTime() == null ? 0L : frag.getTime()), Field.Store.YES,
+          Field.Index.NO));
+      if (frag.getAuthor() != null) {
+        doc.add(new Field(FIELD_SPEAKER, frag.getAuthor(), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+      }
+      if (frag.getTopic() != null && frag.getTopic().getTopicName() != null) {
+        doc.add(new Field(FIELD_TOPIC, frag.getTopic().getTopicName(), Field.Store.YES, Field.Index.ANALYZED));
+      }
+      if (title != null) {
+        // stored only, so that a hit can be rendered without loading the recording
+        doc.add(new Field(FIELD_TITLE, title, Field.Store.YES, Field.Index.NO));
+      }
+      // category, speaker and month are indexed for faceting
+      if (category != null) {
+        doc.add(new Field(FIELD_CATEGORY, category.getTitle(), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
       }
+      if (month != null) {
+        doc.add(new Field(FIELD_MONTH, month, Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
+      }
+      if (recorded != null) {
+        doc.add(new NumericField(FIELD_RECORDED).setLongValue(recorded.getTime()));
+      }
+      doc.add(new Field(FIELD_CONTENTS, text, Field.Store.YES, Field.Index.ANALYZED));
+      doc.add(prefixField(FIELD_CONTENTS_PREFIX, text));
+      docs.add(doc);
     }
 
     Document doc = new Document();
 
-    doc.add(new Field("uid", code, Field.Store.YES, Field.Index.NOT_ANALYZED));
+    doc.add(new Field(FIELD_TYPE, TYPE_RECORDING, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+    doc.add(new Field(FIELD_UID, code, Field.Store.YES, Field.Index.NOT_ANALYZED));
+    doc.add(new Field(FIELD_TID, code, Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
 
     if (recorded != null) {
-      doc.add(new Field("modified", DateTools.dateToString(recorded, DateTools.Resolution.MINUTE), Field.Store.YES,
-          Field.Index.NOT_ANALYZED));
+      doc.add(new NumericField(FIELD_RECORDED, Field.Store.YES, true).setLongValue(recorded.getTime()));
     }
 
     if (category != null) {
-      doc.add(new Field("category", category.getTitle(), Field.Store.YES, Field.Index.NOT_ANALYZED));
+      doc.add(new Field(FIELD_CATEGORY, category.getTitle(), Field.Store.YES, Field.Index.NOT_ANALYZED));
+      doc.add(new Field(FIELD_CATEGORY_ID, category.getId().toString(), Field.Store.YES, Field.Index.NO));
     }
 
-    if (title != null) {
-      doc.add(new Field("title", title, Field.Store.YES, Field.Index.ANALYZED));
+    if (month != null) {
+      doc.add(new Field(FIELD_MONTH, month, Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS));
     }
 
-    if (fn!= null) {
-      doc.add(new Field("fn", fn, Field.Store.YES, Field.Index.ANALYZED));
+    if (title != null) {
+      doc.add(new Field(FIELD_TITLE, title, Field.Store.YES, Field.Index.ANALYZED));
+      doc.add(prefixField(FIELD_TITLE_PREFIX, title));
     }
 
-    if (lines != null) {
-      doc.add(new Field("contents", lines, Field.Store.YES, Field.Index.ANALYZED));
+    if (fn != null) {
+      doc.add(new Field("fn", fn, Field.Store.YES, Field.Index.ANALYZED));
     }
 
-    IndexWriter writer = Search.getLuceneWriter();
+    // full text is only used by MoreLikeThis, which reads it from the term vectors
+    doc.add(new Field(FIELD_FULLTEXT, lines.toString(), Field.Store.NO, Field.Index.ANALYZED, Field.TermVector.YES));
 
-    if (writer == null) {
-      throw new TsabException("Could not open Lucene data files for writing");
-    }
+    docs.add(doc);
 
-    Term tt = new Term("uid", code);
-    try {
-      writer.deleteDocuments(tt);
-
-      writer.addDocument(doc);
-      writer.optimize();
-      writer.close();
-    } catch (Exception e) {
-      throw new TsabException("Failed to index transcription!", e);
-    }
+    return docs;
+  }
 
+  /**
+   * Only the prefixes are looked up, neither frequencies nor positions are needed.
+   */
+  private static Field prefixField(String name, String value) {
+    Field field = new Field(name, value, Field.Store.NO, Field.Index.ANALYZED_NO_NORMS);
+    field.setOmitTermFreqAndPositions(true);
+    return field;
   }
 
   public static void removeTranscription(String id) throws TsabException {
-    Term tt = new Term("uid", id);
-    IndexWriter writer = Search.getLuceneWriter();
-    try {
-      writer.deleteDocuments(tt);
-      writer.optimize();
-      writer.close();
-    } catch (Exception e) {
-      throw new TsabException("Unable to remove transcription from the Lucene DB. Transcription id:"+id);
-    }
-
+    getIndexWriter().deleteDocuments(new Term(FIELD_TID, id));
   }
 }
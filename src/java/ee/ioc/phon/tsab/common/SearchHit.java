@@ -0,0 +1,78 @@
+package ee.ioc.phon.tsab.common;
+
+/**
+ * A single matching index document as returned by the search API: either a
+ * transcription fragment or a recording whose title matched.
+ */
+public class SearchHit {
+
+  private final String tid;
+  private final String type;
+  private final String title;
+  private final String category;
+  private final Long time;
+  private final String speaker;
+  private final String topic;
+  private final String text;
+  private final float score;
+
+  public SearchHit(String tid, String type, String title, String category, Long time, String speaker,
+      String topic, String text, float score) {
+    this.tid = tid;
+    this.type = type;
+    this.title = title;
+    this.category = category;
+    this.time = time;
+    this.speaker = speaker;
+    this.topic = topic;
+    this.text = text;
+    this.score = score;
+  }
+
+  /**
+   * @return id of the recording
+   */
+  public String getTid() {
+    return tid;
+  }
+
+  /**
+   * @return {@link Search#TYPE_FRAGMENT} or {@link Search#TYPE_RECORDING}
+   */
+  public String getType() {
+    return type;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public String getCategory() {
+    return category;
+  }
+
+  /**
+   * @return offset of the fragment from the start of the recording in ms,
+   *         <code>null</code> for recordings
+   */
+  public Long getTime() {
+    return time;
+  }
+
+  public String getSpeaker() {
+    return speaker;
+  }
+
+  public String getTopic() {
+    return topic;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  public float getScore() {
+    return score;
+  }
+
+}
@@ -0,0 +1,47 @@
+package ee.ioc.phon.tsab.common;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of search hits, see {@link Search#searchPage(String, String, int)}.
+ */
+public class SearchPage {
+
+  private final int totalHits;
+  private final List<SearchHit> hits;
+  private final Map<String, Map<String, Integer>> facets;
+  private final String nextCursor;
+
+  public SearchPage(int totalHits, List<SearchHit> hits, Map<String, Map<String, Integer>> facets,
+      String nextCursor) {
+    this.totalHits = totalHits;
+    this.hits = hits;
+    this.facets = facets;
+    this.nextCursor = nextCursor;
+  }
+
+  public int getTotalHits() {
+    return totalHits;
+  }
+
+  public List<SearchHit> getHits() {
+    return hits;
+  }
+
+  /**
+   * @return number of fragment hits per value of each of
+   *         {@link Search#FACET_FIELDS}
+   */
+  public Map<String, Map<String, Integer>> getFacets() {
+    return facets;
+  }
+
+  /**
+   * @return cursor of the next page, <code>null</code> on the last page
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+}
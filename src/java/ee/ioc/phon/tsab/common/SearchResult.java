@@ -0,0 +1,40 @@
+package ee.ioc.phon.tsab.common;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Search hits grouped by recording, in relevance order.
+ */
+public class SearchResult {
+
+  private final int totalHits;
+  private final List<RecordingHit> recordings;
+  private final Map<String, Map<String, Integer>> facets;
+
+  public SearchResult(int totalHits, List<RecordingHit> recordings, Map<String, Map<String, Integer>> facets) {
+    this.totalHits = totalHits;
+    this.recordings = recordings;
+    this.facets = facets;
+  }
+
+  /**
+   * @return number of matching index documents (fragments and recording titles)
+   */
+  public int getTotalHits() {
+    return totalHits;
+  }
+
+  public List<RecordingHit> getRecordings() {
+    return recordings;
+  }
+
+  /**
+   * @return number of fragment hits per value of each of
+   *         {@link Search#FACET_FIELDS}
+   */
+  public Map<String, Map<String, Integer>> getFacets() {
+    return facets;
+  }
+
+}
@@ -0,0 +1,133 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.IndexSearcher;
+
+/**
+ * Speakers of the search index with the number of fragments they speak in,
+ * read from the term dictionary of the untokenized <code>speaker</code> field
+ * of the fragment documents, so no fragments are counted. The counts include
+ * deleted fragments until their segments are merged.
+ * <p>
+ * The list is reread when the searcher generation has changed.
+ */
+public class SpeakerList {
+
+  private final static Logger log = Logger.getLogger(SpeakerList.class);
+
+  private volatile Snapshot snapshot;
+
+  /**
+   * @return all speakers, in the order of their names
+   */
+  public List<Speaker> getSpeakers() throws TsabException {
+    return getSnapshot().speakers;
+  }
+
+  /**
+   * @param name speaker name in any case, e.g. from a normalized query
+   * @return the name as indexed, <code>null</code> if there is no such speaker
+   */
+  public String resolve(String name) throws TsabException {
+    return getSnapshot().names.get(name.toLowerCase());
+  }
+
+  private synchronized Snapshot getSnapshot() throws TsabException {
+    long generation = Search.getIndexGeneration();
+    if (snapshot == null || snapshot.generation != generation) {
+      snapshot = read(generation);
+    }
+    return snapshot;
+  }
+
+  private static Snapshot read(long generation) throws TsabException {
+    List<Speaker> speakers = new ArrayList<Speaker>();
+    Map<String, Speaker> names = new HashMap<String, Speaker>();
+
+    IndexSearcher s = Search.acquireSearcher();
+    try {
+      IndexReader reader = s.getIndexReader();
+      TermEnum te = reader.terms(new Term(Search.FIELD_SPEAKER, ""));
+      try {
+        do {
+          Term t = te.term();
+          if (t == null || !t.field().equals(Search.FIELD_SPEAKER)) {
+            break;
+          }
+          Speaker speaker = new Speaker(t.text(), te.docFreq());
+          speakers.add(speaker);
+
+          // of names differing in case only, the one with most fragments wins
+          String key = t.text().toLowerCase();
+          Speaker other = names.get(key);
+          if (other == null || other.fragments < speaker.fragments) {
+            names.put(key, speaker);
+          }
+        } while (te.next());
+      } finally {
+        te.close();
+      }
+    } catch (IOException e) {
+      throw new TsabException("Failed to read the speakers of the Lucene index!", e);
+    } finally {
+      Search.releaseSearcher(s);
+    }
+
+    log.debug("Read " + speakers.size() + " speakers from the index");
+    Map<String, String> resolved = new HashMap<String, String>(names.size() * 2);
+    for (Map.Entry<String, Speaker> e : names.entrySet()) {
+      resolved.put(e.getKey(), e.getValue().name);
+    }
+    return new Snapshot(generation, Collections.unmodifiableList(speakers), resolved);
+  }
+
+  private static class Snapshot {
+
+    final long generation;
+
+    final List<Speaker> speakers;
+
+    // lower cased name -> name as indexed
+    final Map<String, String> names;
+
+    Snapshot(long generation, List<Speaker> speakers, Map<String, String> names) {
+      this.generation = generation;
+      this.speakers = speakers;
+      this.names = names;
+    }
+  }
+
+  /**
+   * A speaker and the number of fragments they speak in.
+   */
+  public static class Speaker {
+
+    private final String name;
+
+    private final int fragments;
+
+    public Speaker(String name, int fragments) {
+      this.name = name;
+      this.fragments = fragments;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getFragments() {
+      return fragments;
+    }
+  }
+
+}
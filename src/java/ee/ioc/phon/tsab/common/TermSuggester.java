@@ -0,0 +1,188 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.IndexSearcher;
+
+/**
+ * Completes word prefixes for the search box from an immutable dictionary of
+ * the words of the <code>title</code> and <code>contents</code> fields: a
+ * sorted array of words and a parallel array of the number of documents they
+ * occur in. A prefix is located by binary search and its most frequent words
+ * are picked from the matching range, so no query is run.
+ * <p>
+ * The dictionary is rebuilt from the index when the searcher generation has
+ * changed. One caller rebuilds it while the others keep using the previous
+ * dictionary.
+ */
+public class TermSuggester {
+
+  private final static Logger log = Logger.getLogger(TermSuggester.class);
+
+  private static final String[] FIELDS = { Search.FIELD_TITLE, Search.FIELD_CONTENTS };
+
+  private final ReentrantLock buildLock = new ReentrantLock();
+
+  private volatile Dictionary dictionary;
+
+  /**
+   * @param prefix lower cased beginning of a word
+   * @param max maximum number of words returned
+   * @return words starting with <code>prefix</code>, most frequent first
+   */
+  public List<Suggestion> suggest(String prefix, int max) throws TsabException {
+    return getDictionary().suggest(prefix, max);
+  }
+
+  private Dictionary getDictionary() throws TsabException {
+    long generation = Search.getIndexGeneration();
+    Dictionary d = dictionary;
+    if (d != null && d.generation == generation) {
+      return d;
+    }
+    // the first dictionary has to be waited for, later ones are not
+    if (d == null) {
+      buildLock.lock();
+    } else if (!buildLock.tryLock()) {
+      return d;
+    }
+    try {
+      d = dictionary;
+      if (d == null || d.generation != generation) {
+        d = build(generation);
+        dictionary = d;
+      }
+      return d;
+    } finally {
+      buildLock.unlock();
+    }
+  }
+
+  private static Dictionary build(long generation) throws TsabException {
+    long start = System.currentTimeMillis();
+    Dictionary d;
+    IndexSearcher s = Search.acquireSearcher();
+    try {
+      d = read(s.getIndexReader(), generation);
+    } catch (IOException e) {
+      throw new TsabException("Failed to read the words of the Lucene index!", e);
+    } finally {
+      Search.releaseSearcher(s);
+    }
+    log.info("Built suggestion dictionary of " + d.words.length + " words in "
+        + (System.currentTimeMillis() - start) + " ms");
+    return d;
+  }
+
+  /**
+   * @return dictionary of the words of <code>reader</code>
+   */
+  static Dictionary read(IndexReader reader, long generation) throws IOException {
+    Map<String, int[]> counts = new HashMap<String, int[]>();
+    for (String field : FIELDS) {
+      TermEnum te = reader.terms(new Term(field, ""));
+      try {
+        do {
+          Term t = te.term();
+          if (t == null || !t.field().equals(field)) {
+            break;
+          }
+          int[] count = counts.get(t.text());
+          if (count == null) {
+            counts.put(t.text(), new int[] { te.docFreq() });
+          } else {
+            count[0] += te.docFreq();
+          }
+        } while (te.next());
+      } finally {
+        te.close();
+      }
+    }
+
+    String[] words = counts.keySet().toArray(new String[counts.size()]);
+    Arrays.sort(words);
+    int[] docFreqs = new int[words.length];
+    for (int i = 0; i < words.length; i++) {
+      docFreqs[i] = counts.get(words[i])[0];
+    }
+    return new Dictionary(generation, words, docFreqs);
+  }
+
+  static class Dictionary {
+
+    final long generation;
+
+    final String[] words;
+
+    final int[] docFreqs;
+
+    Dictionary(long generation, String[] words, int[] docFreqs) {
+      this.generation = generation;
+      this.words = words;
+      this.docFreqs = docFreqs;
+    }
+
+    List<Suggestion> suggest(String prefix, int max) {
+      int from = Arrays.binarySearch(words, prefix);
+      if (from < 0) {
+        from = -from - 1;
+      }
+
+      // top max by document frequency, kept sorted by insertion
+      int[] top = new int[max];
+      int n = 0;
+      for (int i = from; i < words.length && words[i].startsWith(prefix); i++) {
+        int df = docFreqs[i];
+        if (n == max && df <= docFreqs[top[n - 1]]) {
+          continue;
+        }
+        int j = n == max ? n - 1 : n++;
+        while (j > 0 && docFreqs[top[j - 1]] < df) {
+          top[j] = top[j - 1];
+          j--;
+        }
+        top[j] = i;
+      }
+
+      List<Suggestion> result = new ArrayList<Suggestion>(n);
+      for (int i = 0; i < n; i++) {
+        result.add(new Suggestion(words[top[i]], docFreqs[top[i]]));
+      }
+      return result;
+    }
+  }
+
+  /**
+   * A suggested word and the number of documents it occurs in.
+   */
+  public static class Suggestion {
+
+    private final String word;
+
+    private final int count;
+
+    public Suggestion(String word, int count) {
+      this.word = word;
+      this.count = count;
+    }
+
+    public String getWord() {
+      return word;
+    }
+
+    public int getCount() {
+      return count;
+    }
+  }
+
+}
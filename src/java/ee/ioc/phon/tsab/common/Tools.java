@@ -12,8 +12,6 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.StringWriter;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.log4j.Logger;
 
@@ -50,20 +48,12 @@ public class Tools {
     }
   }
 
+  /**
+   * Highlights the words of <code>str</code> matching <code>query</code>. Use a
+   * {@link QueryHighlighter} directly when highlighting several lines.
+   */
   public static String toQueryResult(String query, String str) {
-
-    String regexp = "";
-
-    String[] qs = query.split(" ");
-    for (String q : qs) {
-      regexp += (regexp.length() > 0 ? "|" : "") + q;
-    }
-
-    Pattern myPattern = Pattern.compile("(" + regexp + ")", Pattern.CASE_INSENSITIVE | Pattern.DOTALL
-        | Pattern.UNICODE_CASE);
-    Matcher myMatcher = myPattern.matcher(str);
-
-    return myMatcher.replaceAll("<strong>$1</strong>");
+    return new QueryHighlighter(query).highlight(str);
   }
 
   public static boolean writeFile(String filename, InputStream inputStream) throws IOException {
@@ -0,0 +1,42 @@
+package ee.ioc.phon.tsab.dao;
+
+import org.hibernate.event.PostDeleteEvent;
+import org.hibernate.event.PostDeleteEventListener;
+import org.hibernate.event.PostInsertEvent;
+import org.hibernate.event.PostInsertEventListener;
+import org.hibernate.event.PostUpdateEvent;
+import org.hibernate.event.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+/**
+ * Tells the {@link LocalCacheProvider} of committed changes to cached
+ * entities, so that other processes drop their copies. Registered for the
+ * post-commit events in hibernate.cfg.xml. Bulk HQL updates are not seen.
+ */
+public class CacheChangeListener implements PostInsertEventListener, PostUpdateEventListener,
+    PostDeleteEventListener {
+
+  private static final long serialVersionUID = 1L;
+
+  @Override
+  public void onPostInsert(PostInsertEvent event) {
+    changed(event.getPersister());
+  }
+
+  @Override
+  public void onPostUpdate(PostUpdateEvent event) {
+    changed(event.getPersister());
+  }
+
+  @Override
+  public void onPostDelete(PostDeleteEvent event) {
+    changed(event.getPersister());
+  }
+
+  private static void changed(EntityPersister persister) {
+    if (persister.hasCache()) {
+      LocalCacheProvider.entityChanged();
+    }
+  }
+
+}
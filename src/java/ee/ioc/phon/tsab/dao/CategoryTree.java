@@ -0,0 +1,144 @@
+package ee.ioc.phon.tsab.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ee.ioc.phon.tsab.domain.Category;
+
+/**
+ * Immutable snapshot of the whole category hierarchy, indexed by id and by
+ * parent, so that menus and breadcrumbs need no queries. The categories are
+ * copies owned by the snapshot, their parents point into the same snapshot,
+ * and they must not be modified. A change produces a new snapshot, see
+ * {@link #with(Category)} and {@link #without(Long)}.
+ */
+public class CategoryTree {
+
+  private static final Comparator<Category> BY_ID = new Comparator<Category>() {
+    @Override
+    public int compare(Category a, Category b) {
+      return a.getId().compareTo(b.getId());
+    }
+  };
+
+  private final long created;
+
+  private final Map<Long, Category> categories = new HashMap<Long, Category>();
+
+  // children by parent id, the root categories under null
+  private final Map<Long, List<Category>> children = new HashMap<Long, List<Category>>();
+
+  /**
+   * @param all every category, with their parents set
+   * @param created when <code>all</code> was read from the database
+   */
+  CategoryTree(Collection<Category> all, long created) {
+    this.created = created;
+
+    Map<Long, Long> parents = new HashMap<Long, Long>();
+    for (Category c : all) {
+      Category copy = new Category();
+      copy.setId(c.getId());
+      copy.setTitle(c.getTitle());
+      categories.put(copy.getId(), copy);
+      parents.put(copy.getId(), c.getParent() == null ? null : c.getParent().getId());
+    }
+
+    Map<Long, List<Category>> lists = new HashMap<Long, List<Category>>();
+    for (Category c : categories.values()) {
+      // categories whose parent is missing are shown as root categories
+      Category parent = categories.get(parents.get(c.getId()));
+      c.setParent(parent);
+      Long key = parent == null ? null : parent.getId();
+      List<Category> list = lists.get(key);
+      if (list == null) {
+        list = new ArrayList<Category>();
+        lists.put(key, list);
+      }
+      list.add(c);
+    }
+    for (Map.Entry<Long, List<Category>> e : lists.entrySet()) {
+      Collections.sort(e.getValue(), BY_ID);
+      children.put(e.getKey(), Collections.unmodifiableList(e.getValue()));
+    }
+  }
+
+  /**
+   * @return when the categories were read from the database
+   *         (System.currentTimeMillis())
+   */
+  public long getCreated() {
+    return created;
+  }
+
+  /**
+   * @return the category with the given id, <code>null</code> if there is none
+   */
+  public Category get(Long id) {
+    return categories.get(id);
+  }
+
+  /**
+   * @return categories without a parent
+   */
+  public List<Category> getRoots() {
+    return getChildren(null);
+  }
+
+  /**
+   * @return sub-categories of category <code>id</code>, empty if there are none
+   */
+  public List<Category> getChildren(Long id) {
+    List<Category> list = children.get(id);
+    return list == null ? Collections.<Category> emptyList() : list;
+  }
+
+  /**
+   * @return the root category above category <code>id</code> (or the category
+   *         itself if it is a root), <code>null</code> if there is none
+   */
+  public Category getRoot(Long id) {
+    Category c = categories.get(id);
+    while (c != null && c.getParent() != null) {
+      c = c.getParent();
+    }
+    return c;
+  }
+
+  /**
+   * @return new snapshot with <code>category</code> added or replaced
+   */
+  CategoryTree with(Category category) {
+    List<Category> all = new ArrayList<Category>(categories.values());
+    Category old = categories.get(category.getId());
+    if (old != null) {
+      all.remove(old);
+    }
+    all.add(category);
+    return new CategoryTree(all, created);
+  }
+
+  /**
+   * @return new snapshot without category <code>id</code> and its
+   *         sub-categories
+   */
+  CategoryTree without(Long id) {
+    List<Category> all = new ArrayList<Category>(categories.size());
+    for (Category c : categories.values()) {
+      Category a = c;
+      while (a != null && !a.getId().equals(id)) {
+        a = a.getParent();
+      }
+      if (a == null) {
+        all.add(c);
+      }
+    }
+    return new CategoryTree(all, created);
+  }
+
+}
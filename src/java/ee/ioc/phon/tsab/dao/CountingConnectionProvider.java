@@ -0,0 +1,91 @@
+package ee.ioc.phon.tsab.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.hibernate.connection.C3P0ConnectionProvider;
+
+/**
+ * The c3p0 connection pool, counting the connections checked out by each
+ * thread so that {@link UnitOfWork} can report them per request or command.
+ * Configured as <code>connection.provider_class</code> in hibernate.cfg.xml.
+ * <p>
+ * A unit of work pins the connection of its thread: between {@link #pin()} and
+ * {@link #unpin()} every session of the thread gets the same connection, which
+ * is checked out on first use, and closing it does not return it to the pool.
+ */
+public class CountingConnectionProvider extends C3P0ConnectionProvider {
+
+  private static final ThreadLocal<long[]> checkouts = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[1];
+    }
+  };
+
+  private static final ThreadLocal<Pin> pins = new ThreadLocal<Pin>();
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    Pin pin = pins.get();
+    if (pin != null && pin.connection != null) {
+      return pin.connection;
+    }
+    Connection connection = super.getConnection();
+    checkouts.get()[0]++;
+    if (pin != null) {
+      pin.connection = connection;
+      pin.provider = this;
+    }
+    return connection;
+  }
+
+  @Override
+  public void closeConnection(Connection connection) throws SQLException {
+    Pin pin = pins.get();
+    if (pin != null && pin.connection == connection) {
+      return;
+    }
+    super.closeConnection(connection);
+  }
+
+  /**
+   * @return number of connections the current thread has checked out so far
+   */
+  public static long getCheckouts() {
+    return checkouts.get()[0];
+  }
+
+  /**
+   * Makes the current thread keep the next connection it checks out until
+   * {@link #unpin()}.
+   */
+  static void pin() {
+    if (pins.get() == null) {
+      pins.set(new Pin());
+    }
+  }
+
+  /**
+   * Returns the connection pinned by the current thread to the pool.
+   */
+  static void unpin() throws SQLException {
+    Pin pin = pins.get();
+    pins.remove();
+    if (pin != null && pin.connection != null) {
+      pin.provider.release(pin.connection);
+    }
+  }
+
+  private void release(Connection connection) throws SQLException {
+    super.closeConnection(connection);
+  }
+
+  private static class Pin {
+
+    Connection connection;
+
+    CountingConnectionProvider provider;
+  }
+
+}
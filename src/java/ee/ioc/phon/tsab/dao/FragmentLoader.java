@@ -0,0 +1,174 @@
+package ee.ioc.phon.tsab.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.jdbc.Work;
+
+import ee.ioc.phon.tsab.domain.Transcription;
+import ee.ioc.phon.tsab.domain.TranscriptionFragment;
+
+/**
+ * Inserts the topics and fragments of a recording with batched JDBC
+ * statements. Hibernate does not batch inserts of entities with IDENTITY ids,
+ * so saving a long recording fragment by fragment costs thousands of round
+ * trips. The topic times (time of their first fragment) are known before the
+ * topics are inserted, and the topic ids the fragments refer to are read back
+ * with one query.
+ * <p>
+ * Runs inside the transaction of the session it is passed to with
+ * {@link org.hibernate.Session#doWork(Work)}. The rows bypass the session and
+ * the second-level cache; the fragments get no ids and no topics.
+ */
+class FragmentLoader implements Work {
+
+  private static final int BATCH_SIZE = 500;
+
+  private static final String INSERT_TOPIC = "insert into transcriptiontopic (transcription_id, topic_id, topic_name, time) values (?, ?, ?, ?)";
+
+  private static final String SELECT_TOPICS = "select id, topic_id from transcriptiontopic where transcription_id = ?";
+
+  private static final String INSERT_FRAGMENT = "insert into transcriptionfragment (transcription_id, topic_id, time, author, text, original_text) values (?, ?, ?, ?, ?, ?)";
+
+  private final Transcription transcription;
+
+  private final List<TranscriptionFragment> fragments;
+
+  // topic descriptions by topic id
+  private final Map<String, String> topics;
+
+  private long millis;
+
+  FragmentLoader(Transcription transcription, List<TranscriptionFragment> fragments, Map<String, String> topics) {
+    this.transcription = transcription;
+    this.fragments = fragments;
+    this.topics = topics;
+  }
+
+  @Override
+  public void execute(Connection connection) throws SQLException {
+    long start = System.currentTimeMillis();
+    long tid = transcription.getId();
+
+    Map<String, Long> topicIds = new HashMap<String, Long>();
+    if (!topics.isEmpty()) {
+      insertTopics(connection, tid);
+      topicIds = readTopicIds(connection, tid);
+    }
+    if (!fragments.isEmpty()) {
+      insertFragments(connection, tid, topicIds);
+    }
+
+    millis = System.currentTimeMillis() - start;
+  }
+
+  private void insertTopics(Connection connection, long tid) throws SQLException {
+    Map<String, Long> times = new HashMap<String, Long>();
+    for (TranscriptionFragment f : fragments) {
+      String topic = f.getTransientTopicId();
+      if (topic != null && topics.containsKey(topic) && !times.containsKey(topic)) {
+        times.put(topic, f.getTime() != null ? f.getTime() : 0L);
+      }
+    }
+
+    PreparedStatement ps = connection.prepareStatement(INSERT_TOPIC);
+    try {
+      for (Map.Entry<String, String> topic : topics.entrySet()) {
+        Long time = times.get(topic.getKey());
+        ps.setLong(1, tid);
+        ps.setString(2, topic.getKey());
+        ps.setString(3, topic.getValue());
+        if (time == null) {
+          ps.setNull(4, Types.BIGINT);
+        } else {
+          ps.setLong(4, time);
+        }
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } finally {
+      ps.close();
+    }
+  }
+
+  /**
+   * @return ids of the topics of the recording by topic id
+   */
+  private static Map<String, Long> readTopicIds(Connection connection, long tid) throws SQLException {
+    Map<String, Long> topicIds = new HashMap<String, Long>();
+    PreparedStatement ps = connection.prepareStatement(SELECT_TOPICS);
+    try {
+      ps.setLong(1, tid);
+      ResultSet rs = ps.executeQuery();
+      while (rs.next()) {
+        topicIds.put(rs.getString(2), rs.getLong(1));
+      }
+      rs.close();
+    } finally {
+      ps.close();
+    }
+    return topicIds;
+  }
+
+  private void insertFragments(Connection connection, long tid, Map<String, Long> topicIds) throws SQLException {
+    PreparedStatement ps = connection.prepareStatement(INSERT_FRAGMENT);
+    try {
+      int pending = 0;
+      for (TranscriptionFragment f : fragments) {
+        f.setTranscription(transcription);
+        Long topicId = topicIds.get(f.getTransientTopicId());
+        ps.setLong(1, tid);
+        if (topicId == null) {
+          ps.setNull(2, Types.BIGINT);
+        } else {
+          ps.setLong(2, topicId);
+        }
+        if (f.getTime() == null) {
+          ps.setNull(3, Types.BIGINT);
+        } else {
+          ps.setLong(3, f.getTime());
+        }
+        ps.setString(4, f.getAuthor());
+        ps.setString(5, f.getText());
+        ps.setString(6, f.getOriginalText());
+        ps.addBatch();
+        if (++pending == BATCH_SIZE) {
+          ps.executeBatch();
+          pending = 0;
+        }
+      }
+      if (pending > 0) {
+        ps.executeBatch();
+      }
+    } finally {
+      ps.close();
+    }
+  }
+
+  /**
+   * @return number of rows inserted
+   */
+  int getRows() {
+    return topics.size() + fragments.size();
+  }
+
+  /**
+   * @return how long the inserts took
+   */
+  long getMillis() {
+    return millis;
+  }
+
+  @Override
+  public String toString() {
+    return "inserted " + topics.size() + " topics and " + fragments.size() + " fragments in " + millis + " ms; "
+        + Math.round(getRows() * 1000d / Math.max(1, millis)) + " rows/s";
+  }
+
+}
@@ -1,5 +1,6 @@
 package ee.ioc.phon.tsab.dao;
 
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
 
@@ -23,4 +24,13 @@ public class HibernateUtil {
         return sessionFactory;
     }
 
+    /**
+     * @return the session of the current {@link UnitOfWork}, or outside of one
+     *         a session that is closed when its transaction ends
+     */
+    public static Session getSession() {
+        Session session = UnitOfWork.getCurrentSession();
+        return session != null ? session : sessionFactory.getCurrentSession();
+    }
+
 }
\ No newline at end of file
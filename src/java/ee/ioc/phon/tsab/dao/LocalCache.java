@@ -0,0 +1,160 @@
+package ee.ioc.phon.tsab.dao;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.Timestamper;
+
+/**
+ * One region of the {@link LocalCacheProvider}: a map that evicts the least
+ * recently used entry once it holds <code>maxEntries</code> and drops entries
+ * older than <code>ttl</code> ms when they are read.
+ */
+public class LocalCache implements Cache {
+
+  private final LocalCacheProvider provider;
+
+  private final String regionName;
+
+  private final long ttl;
+
+  private final Map<Object, Item> map;
+
+  LocalCache(LocalCacheProvider provider, String regionName, final int maxEntries, long ttl) {
+    this.provider = provider;
+    this.regionName = regionName;
+    this.ttl = ttl;
+    this.map = new LinkedHashMap<Object, Item>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, Item> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  @Override
+  public Object read(Object key) {
+    return get(key);
+  }
+
+  @Override
+  public Object get(Object key) {
+    provider.checkForChanges();
+    synchronized (map) {
+      Item item = map.get(key);
+      if (item == null) {
+        return null;
+      }
+      if (ttl > 0 && System.currentTimeMillis() - item.created > ttl) {
+        map.remove(key);
+        return null;
+      }
+      return item.value;
+    }
+  }
+
+  @Override
+  public void put(Object key, Object value) {
+    synchronized (map) {
+      map.put(key, new Item(value));
+    }
+  }
+
+  @Override
+  public void update(Object key, Object value) {
+    put(key, value);
+  }
+
+  @Override
+  public void remove(Object key) {
+    synchronized (map) {
+      map.remove(key);
+    }
+  }
+
+  @Override
+  public void clear() {
+    synchronized (map) {
+      map.clear();
+    }
+  }
+
+  @Override
+  public void destroy() {
+    clear();
+  }
+
+  @Override
+  public void lock(Object key) {
+    // local only, the concurrency strategy synchronizes itself
+  }
+
+  @Override
+  public void unlock(Object key) {
+  }
+
+  @Override
+  public long nextTimestamp() {
+    return Timestamper.next();
+  }
+
+  @Override
+  public int getTimeout() {
+    // how long an entry stays locked by a crashed transaction
+    return Timestamper.ONE_MS * 60000;
+  }
+
+  @Override
+  public String getRegionName() {
+    return regionName;
+  }
+
+  @Override
+  public long getSizeInMemory() {
+    return -1;
+  }
+
+  @Override
+  public long getElementCountInMemory() {
+    synchronized (map) {
+      return map.size();
+    }
+  }
+
+  @Override
+  public long getElementCountOnDisk() {
+    return 0;
+  }
+
+  @Override
+  public Map toMap() {
+    Map<Object, Object> copy = new HashMap<Object, Object>();
+    synchronized (map) {
+      for (Map.Entry<Object, Item> e : map.entrySet()) {
+        copy.put(e.getKey(), e.getValue().value);
+      }
+    }
+    return copy;
+  }
+
+  @Override
+  public String toString() {
+    return "LocalCache(" + regionName + ")";
+  }
+
+  private static class Item {
+
+    final Object value;
+
+    final long created = System.currentTimeMillis();
+
+    Item(Object value) {
+      this.value = value;
+    }
+  }
+
+}
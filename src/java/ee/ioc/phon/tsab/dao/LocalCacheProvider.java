@@ -0,0 +1,258 @@
+package ee.ioc.phon.tsab.dao;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.hibernate.cache.Cache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.CacheProvider;
+import org.hibernate.cache.Timestamper;
+
+import ee.ioc.phon.tsab.common.Constants;
+
+/**
+ * In-process second-level and query cache for Hibernate, configured as
+ * <code>cache.provider_class</code> in hibernate.cfg.xml. Each region (entity
+ * class or query cache) is a {@link LocalCache} holding at most
+ * <code>tsab.cache.&lt;region&gt;.max_entries</code> entries for
+ * <code>tsab.cache.&lt;region&gt;.ttl</code> seconds (0 for no limit), the
+ * <code>tsab.cache.default.*</code> properties apply to regions without
+ * their own.
+ * <p>
+ * The web application and the CLI run in different processes with their own
+ * caches. Whenever a process commits a change to a cached entity, the file
+ * {@value #CHANGE_FILE} in TSAB.HOME gets a new stamp; every process checks
+ * the file at most every {@link Constants#dbChangeCheckInterval} ms and
+ * empties all its regions once another process has changed it. Within a
+ * {@link UnitOfWork} the stamp is written at most that often, by a timer if
+ * no further change comes, and once more when the unit ends, so that a crawl
+ * does not rewrite the file for every topic.
+ * <p>
+ * The stamp is read and replaced under a lock on the file, so that a change of
+ * another process written meanwhile is not overwritten unseen.
+ */
+public class LocalCacheProvider implements CacheProvider {
+
+  private final static Logger log = Logger.getLogger(LocalCacheProvider.class);
+
+  public static final String CHANGE_FILE = "dbchanged";
+
+  private static final String PREFIX = "tsab.cache.";
+
+  private static volatile LocalCacheProvider instance;
+
+  private final List<LocalCache> caches = new CopyOnWriteArrayList<LocalCache>();
+
+  private File marker;
+
+  private volatile long lastCheck;
+
+  // stamp of the last change seen or made by this process
+  private volatile String changeStamp;
+
+  private long lastMark;
+
+  private boolean pending;
+
+  // writes stamps held back by markChangedLater()
+  private ScheduledExecutorService timer;
+
+  @Override
+  public void start(Properties properties) throws CacheException {
+    marker = new File(Constants.TSAB_HOME_PATH, CHANGE_FILE);
+    changeStamp = readStamp();
+    lastCheck = System.currentTimeMillis();
+    timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "tsab-cache-marker");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    instance = this;
+    log.info("Started local second-level cache, change marker " + marker);
+  }
+
+  @Override
+  public void stop() {
+    instance = null;
+    timer.shutdownNow();
+    for (LocalCache cache : caches) {
+      cache.clear();
+    }
+    caches.clear();
+  }
+
+  @Override
+  public Cache buildCache(String regionName, Properties properties) throws CacheException {
+    int maxEntries = Integer.parseInt(getProperty(properties, regionName, "max_entries", "1000"));
+    long ttl = Long.parseLong(getProperty(properties, regionName, "ttl", "600")) * 1000L;
+    LocalCache cache = new LocalCache(this, regionName, maxEntries, ttl);
+    caches.add(cache);
+    log.debug("Built cache region " + regionName + ": max " + maxEntries + " entries, ttl " + ttl + " ms");
+    return cache;
+  }
+
+  private static String getProperty(Properties properties, String regionName, String name, String def) {
+    String value = properties.getProperty(PREFIX + regionName + "." + name);
+    if (value == null) {
+      value = properties.getProperty(PREFIX + "default." + name, def);
+    }
+    return value.trim();
+  }
+
+  @Override
+  public long nextTimestamp() {
+    return Timestamper.next();
+  }
+
+  @Override
+  public boolean isMinimalPutsEnabledByDefault() {
+    return false;
+  }
+
+  /**
+   * Empties all regions if another process has changed cached entities since
+   * the last check. Called on every cache read, checks the file at most every
+   * {@link Constants#dbChangeCheckInterval} ms.
+   */
+  void checkForChanges() {
+    if (System.currentTimeMillis() - lastCheck < Constants.dbChangeCheckInterval) {
+      return;
+    }
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      if (now - lastCheck < Constants.dbChangeCheckInterval) {
+        return;
+      }
+      lastCheck = now;
+      clearIfChanged(readStamp());
+    }
+  }
+
+  private synchronized void clearIfChanged(String stamp) {
+    if (stamp != null && !stamp.equals(changeStamp)) {
+      log.debug("Database changed by another process, clearing the second-level cache");
+      for (LocalCache cache : caches) {
+        cache.clear();
+      }
+      changeStamp = stamp;
+    }
+  }
+
+  /**
+   * Called by {@link CacheChangeListener} after a change to a cached entity
+   * has been committed.
+   */
+  static void entityChanged() {
+    LocalCacheProvider provider = instance;
+    if (provider == null) {
+      return;
+    }
+    if (UnitOfWork.isActive()) {
+      provider.markChangedLater();
+    } else {
+      provider.markChanged();
+    }
+  }
+
+  /**
+   * Writes the stamp held back by {@link #entityChanged()}, if any. Called
+   * when a {@link UnitOfWork} ends.
+   */
+  static void flushChanges() {
+    LocalCacheProvider provider = instance;
+    if (provider != null) {
+      provider.flushPending();
+    }
+  }
+
+  private synchronized void flushPending() {
+    if (pending) {
+      markChanged();
+    }
+  }
+
+  private synchronized void markChangedLater() {
+    long wait = Constants.dbChangeCheckInterval - (System.currentTimeMillis() - lastMark);
+    if (wait <= 0) {
+      markChanged();
+    } else if (!pending) {
+      pending = true;
+      timer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          flushPending();
+        }
+      }, wait, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Writes a new stamp into {@value #CHANGE_FILE}. The file is locked while the
+   * stamp of another process is picked up and replaced, as it is not seen once
+   * overwritten. A failure is only logged, the regions then expire by their
+   * ttl.
+   */
+  private synchronized void markChanged() {
+    String stamp = System.currentTimeMillis() + "." + System.nanoTime();
+    try {
+      RandomAccessFile file = new RandomAccessFile(marker, "rw");
+      try {
+        FileLock lock = file.getChannel().lock();
+        try {
+          byte[] current = new byte[(int) file.length()];
+          file.readFully(current);
+          clearIfChanged(current.length == 0 ? null : new String(current, "US-ASCII").trim());
+
+          byte[] bytes = stamp.getBytes("US-ASCII");
+          file.seek(0);
+          file.write(bytes);
+          file.setLength(bytes.length);
+          changeStamp = stamp;
+        } finally {
+          lock.release();
+        }
+      } finally {
+        file.close();
+      }
+    } catch (IOException e) {
+      log.warn("Failed to write database change marker " + marker, e);
+    }
+    lastCheck = System.currentTimeMillis();
+    lastMark = System.currentTimeMillis();
+    pending = false;
+  }
+
+  private String readStamp() {
+    if (!marker.exists()) {
+      return null;
+    }
+    try {
+      BufferedReader in = new BufferedReader(new FileReader(marker));
+      try {
+        String stamp = in.readLine();
+        return stamp == null ? "" : stamp;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      log.warn("Failed to read database change marker " + marker, e);
+      return null;
+    }
+  }
+
+}
@@ -1,35 +1,33 @@
 package ee.ioc.phon.tsab.dao;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.CorruptIndexException;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.Searcher;
-import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.similar.MoreLikeThis;
 import org.hibernate.Criteria;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 
 import ee.ioc.phon.tsab.common.Constants;
+import ee.ioc.phon.tsab.common.LruCache;
+import ee.ioc.phon.tsab.common.RecordingHit;
 import ee.ioc.phon.tsab.common.Search;
-import ee.ioc.phon.tsab.common.Tools;
+import ee.ioc.phon.tsab.common.SearchResult;
 import ee.ioc.phon.tsab.common.TsabException;
 import ee.ioc.phon.tsab.domain.Category;
 import ee.ioc.phon.tsab.domain.Classifiers;
+import ee.ioc.phon.tsab.domain.IndexJournalEntry;
 import ee.ioc.phon.tsab.domain.Transcription;
 import ee.ioc.phon.tsab.domain.TranscriptionFragment;
 import ee.ioc.phon.tsab.domain.TranscriptionFragmentCorrection;
@@ -41,6 +39,34 @@ public class TsabDao {
   private final static Logger log = Logger.getLogger(TsabDao.class);
   private static final int MAX_RECENTLY_ADDED = 5;
   private static final int MAX_MOST_POPULAR = 5;
+  private static final int MAX_SEARCH_RECORDINGS = 50;
+
+  /**
+   * Query cache region of {@link #getMostPopular()}. View counts are written by
+   * {@link ViewCounter} with plain JDBC, which the query cache does not notice.
+   */
+  static final String MOST_POPULAR_REGION = "mostPopular";
+
+  // number of index journal entries written by this process
+  private final AtomicLong journalWrites = new AtomicLong();
+
+  // search results, keyed by index generation, normalized query and drill-down
+  private final LruCache<String, SearchResult> searchCache = new LruCache<String, SearchResult>(
+      Constants.searchCacheSize);
+
+  // all categories, replaced as a whole when this process changes them
+  private final AtomicReference<CategoryTree> categoryTree = new AtomicReference<CategoryTree>();
+
+  // number of category changes by this process, a snapshot read meanwhile may miss them
+  private final AtomicLong categoryChanges = new AtomicLong();
+
+  // topic and fragment rows inserted by this process, and the time it took
+  private final AtomicLong loadedRows = new AtomicLong();
+
+  private final AtomicLong loadMillis = new AtomicLong();
+
+  // views counted since the last write to the database
+  private final ViewCounter viewCounter = new ViewCounter();
 
   /**
    * Searches for the {@link Category} by given <code>title</code>
@@ -50,7 +76,7 @@ public class TsabDao {
    * @throws TsabException
    */
   public Category getCategoryByTitle(String title) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -77,7 +103,7 @@ public class TsabDao {
   }
 
   public Transcription getTranscriptionById(Long id) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -104,12 +130,12 @@ public class TsabDao {
 
   public List<TranscriptionTopic> getTranscriptionTopics(Transcription current) throws TsabException {
 
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
       try {
         return sess.createCriteria(TranscriptionTopic.class).add(Restrictions.eq("transcription", current))
-            .addOrder(Order.asc("time")).list();
+            .addOrder(Order.asc("time")).setCacheable(true).list();
       } finally {
         tx.commit();
       }
@@ -124,10 +150,11 @@ public class TsabDao {
   }
 
   public void deleteFragment(TranscriptionFragment speechLine) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
       sess.delete(speechLine);
+      journal(sess, speechLine.getTranscription().getId());
       tx.commit();
     } catch (Exception e) {
       try {
@@ -139,7 +166,7 @@ public class TsabDao {
   }
 
   public Category addCategory(String categoryName) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
       Category cat = new Category();
@@ -147,6 +174,7 @@ public class TsabDao {
       sess.persist(cat);
       sess.flush();
       tx.commit();
+      addToCategoryTree(cat);
       return cat;
     } catch (Exception e) {
       try {
@@ -159,7 +187,7 @@ public class TsabDao {
 
   public Transcription addTranscription(Transcription newt, List<TranscriptionFragment> fragments,
       Hashtable<String, String> topics) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -167,9 +195,12 @@ public class TsabDao {
 
       sess.saveOrUpdate(newt.getCategory());
 
-      persistTopicsAndFragments(newt, fragments, topics, sess);
+      FragmentLoader loader = persistTopicsAndFragments(newt, fragments, topics, sess);
+
+      journal(sess, newt.getId());
 
       tx.commit();
+      loaded(newt, loader);
       return newt;
     } catch (Exception e) {
       try {
@@ -181,51 +212,55 @@ public class TsabDao {
     }
   }
 
-  private void persistTopicsAndFragments(Transcription newt, List<TranscriptionFragment> fragments,
+  private FragmentLoader persistTopicsAndFragments(Transcription newt, List<TranscriptionFragment> fragments,
       Hashtable<String, String> topics, Session sess) {
-    Map<String, TranscriptionTopic> topicMap = new HashMap<String, TranscriptionTopic>();
-
-    Iterator<Entry<String, String>> topicIter = topics.entrySet().iterator();
-    while (topicIter.hasNext()) {
-      Map.Entry<java.lang.String, java.lang.String> t = (Map.Entry<java.lang.String, java.lang.String>) topicIter
-          .next();
-      String topicId = t.getKey();
-      String topicDesc = t.getValue();
-      TranscriptionTopic tt = new TranscriptionTopic();
-      tt.setTopicId(topicId);
-      tt.setTopicName(topicDesc);
-      tt.setTranscription(newt);
-      sess.save(tt);
-      topicMap.put(topicId, tt);
-    }
+    FragmentLoader loader = new FragmentLoader(newt, fragments, topics);
+    sess.doWork(loader);
+    return loader;
+  }
 
-    Iterator<TranscriptionFragment> fit = fragments.iterator();
-    while (fit.hasNext()) {
-      TranscriptionFragment transcriptionFragment = (TranscriptionFragment) fit.next();
-      transcriptionFragment.setTranscription(newt);
+  /**
+   * Reports the rows inserted by <code>loader</code> once they are committed.
+   * As the rows bypass Hibernate, cached topic queries are dropped here and
+   * other processes are told to drop theirs.
+   */
+  private void loaded(Transcription newt, FragmentLoader loader) {
+    HibernateUtil.getSessionFactory().getCache().evictDefaultQueryRegion();
+    LocalCacheProvider.entityChanged();
 
-      TranscriptionTopic topic = topicMap.get(transcriptionFragment.getTransientTopicId());
-      if (topic != null && topic.getTime() == null) {
-        topic.setTime(transcriptionFragment.getTime()!=null?transcriptionFragment.getTime():0L);
-        sess.update(topic);
-      }
+    loadedRows.addAndGet(loader.getRows());
+    loadMillis.addAndGet(loader.getMillis());
+    log.info(newt.getFn() + ": " + loader);
+  }
 
-      transcriptionFragment.setTopic(topic);
+  /**
+   * @return number of topic and fragment rows this process has inserted
+   */
+  public long getLoadedRowCount() {
+    return loadedRows.get();
+  }
 
-      sess.save(transcriptionFragment);
-    }
+  /**
+   * @return milliseconds this process has spent inserting topic and fragment
+   *         rows
+   */
+  public long getLoadMillis() {
+    return loadMillis.get();
   }
 
 
   public Transcription addFragmentsAndTopics(Transcription newt, List<TranscriptionFragment> fragments,
       Hashtable<String, String> topics) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
-      persistTopicsAndFragments(newt, fragments, topics, sess);
-        
+      FragmentLoader loader = persistTopicsAndFragments(newt, fragments, topics, sess);
+
+      journal(sess, newt.getId());
+
       tx.commit();
+      loaded(newt, loader);
       return newt;
     } catch (Exception e) {
       try {
@@ -238,7 +273,7 @@ public class TsabDao {
   }
 
   public List<String> getTranscriptionLines(Transcription trans) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
       try {
@@ -266,10 +301,11 @@ public class TsabDao {
   }
 
   public void updateTranscription(Transcription current) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
       sess.update(current);
+      journal(sess, current.getId());
       tx.commit();
     } catch (Exception e) {
       try {
@@ -279,10 +315,12 @@ public class TsabDao {
       }
 
     }
+    // the cached copy has the view count of current, not the one in the database
+    HibernateUtil.getSessionFactory().getCache().evictEntity(Transcription.class, current.getId());
   }
 
   public void deleteTranscriptionById(final Long id) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
       Transcription trans = (Transcription) sess.get(Transcription.class, id);
@@ -303,6 +341,7 @@ public class TsabDao {
         sess.delete(f);
       }
       sess.delete(trans);
+      journal(sess, id);
       tx.commit();
     } catch (Exception e) {
       try {
@@ -320,7 +359,7 @@ public class TsabDao {
    * @throws TsabException
    */
   public Transcription getTranscriptionByFn(String fn) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -345,7 +384,7 @@ public class TsabDao {
   }
 
   public List<Transcription> getAllTranscriptions() throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -367,7 +406,7 @@ public class TsabDao {
   }
 
   public Category getCategoryById(Long id) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -388,165 +427,97 @@ public class TsabDao {
     }
   }
 
-  public String searchTranscriptions(String queryString) throws TsabException {
+  /**
+   * Searches the index for the matching recordings, with the hit counts per
+   * facet value. Results are cached until the index changes.
+   * 
+   * @param drillDown selected value per facet field, see
+   *          {@link Search#getDrillDownFilter(Map)}
+   */
+  public SearchResult searchTranscriptions(String queryString, Map<String, String> drillDown) throws TsabException {
 
-    if (queryString == null || queryString.length() == 0) {
+    if (queryString == null || queryString.trim().length() == 0) {
       throw new TsabException("Search query not specified!");
     }
 
-    String search2 = "";
-
-    String[] qs = queryString.split(" ");
+    queryString = Search.normalizeQuery(queryString);
+    drillDown = new TreeMap<String, String>(drillDown);
 
-    for (String qq : qs) {
-      search2 += (search2.length() > 0 ? " " : "") + qq + "*";
+    String key = Search.getIndexGeneration() + ":" + queryString + ":" + drillDown;
+    SearchResult cached = searchCache.get(key);
+    if (cached != null) {
+      return cached;
     }
 
-    Query q = Search.getQuery(search2);
-    Searcher s = Search.getLuceneSearcher();
-
-    TopDocs hits;
-    try {
-      hits = s.search(q, 50);
-    } catch (IOException e) {
-      throw new TsabException("Failed to search!", e);
-    }
-
-    int playbuttons = 0;
-
-    StringBuffer finalResult = new StringBuffer();
-
-    log.debug("Found " + hits.totalHits + " matches to the search!");
-
-    Session sess = null;
-    try {
-      sess = HibernateUtil.getSessionFactory().openSession();
-
-      for (int i = 0; i < Math.min(hits.totalHits, hits.scoreDocs.length); i++) {
-
-        Document doc;
-        try {
-          doc = s.doc(hits.scoreDocs[i].doc);
-        } catch (CorruptIndexException e) {
-          throw new TsabException("Corrupt Exception, unable to search!", e);
-        } catch (IOException e) {
-          throw new TsabException("Failed to search!", e);
-        }
-
-        String content = doc.get("contents");
-        String title = doc.get("title");
-        String category = doc.get("category");
-        String uid = doc.get("uid");
-
-        log.debug("Query hit title:" + title);
-
-        String[] lines = content.split("\n");
-        String results = "";
-        int j = 0;
-        int entrylines = 0;
-
-        //log.debug("Content: "+content);
-
-        //log.debug("Total number of lines:"+lines.length);
-
-        for (String line : lines) {
-
-          j++;
-
-          String[] words = line.split(" ");
-
-          boolean include = false;
-
-          for (String word : words) {
-            for (String qq : qs) {
-              if (word.toLowerCase().startsWith(qq.toLowerCase())) {
-                include = true;
-                break;
-              }
-            }
-          }
-
-          if (include) {
-            Long tid = new Long(uid);
-
-            //log.debug("Search match found for row "+(j-1));
-
-            List<TranscriptionFragment> fraglist = sess.createCriteria(TranscriptionFragment.class)
-                .add(Restrictions.eq("transcription.id", tid)).addOrder(Order.asc("time")).list();
-            TranscriptionFragment frag = fraglist.get(j - 1);
-
-            results += "<a href='javascript:donothing();' id='playbutton_" + playbuttons + "' onclick='playOneLine("
-                + playbuttons + "," + uid + ", " + frag.getTime() + ")'>CONTROL_PLAY</a> ..."
-                + Tools.toQueryResult(queryString, line) + "...<br/>";
-            playbuttons++;
-            entrylines++;
-          }
-          if (entrylines == Constants.linesPerSearchEntry) {
-            break;
-          }
-
-        }
-
-        finalResult.append("<h3><a href='play?trans=" + uid + "'>" + (i + 1) + ". " + title + "</a></h3>");
-
-        finalResult.append(results);
-      }
-
-    } finally {
-      if (sess != null) {
-        sess.close();
-      }
-    }
+    SearchResult result = Search.search(Search.toPrefixQuery(queryString), Search.getDrillDownFilter(drillDown),
+        MAX_SEARCH_RECORDINGS, Constants.linesPerSearchEntry);
+    log.debug("Found " + result.getTotalHits() + " matches to the search!");
+    searchCache.put(key, result);
+    return result;
+  }
 
-    return finalResult.toString();
+  /**
+   * @return the search result cache, e.g. for its hit and miss counts
+   */
+  public LruCache<String, SearchResult> getSearchCache() {
+    return searchCache;
   }
 
+  /**
+   * @return links to the recordings related to <code>transId</code>, from the
+   *         precomputed table (see {@link ee.ioc.phon.tsab.common.RelatedRecordings})
+   */
   public String getRelatedRecordings(Long transId) throws TsabException {
-    String code = transId.toString();
-
-    int doc = Search.getDocumentId(code);
-
     StringBuffer res = new StringBuffer();
 
-    MoreLikeThis mlt = new MoreLikeThis(Search.getLuceneReader());
-    mlt.setFieldNames(new String[] { "title", "category", "contents" });
-    mlt.setMinWordLen(3);
-    mlt.setBoost(true);
-
-    try {
-      Query q = mlt.like(doc);
-
-      Searcher s = Search.getLuceneSearcher();
-
-      TopDocs hits = s.search(q, 5);
-
-      log.info("Found related:" + hits.totalHits);
-
-      for (int i = 0; i < (hits.totalHits > 5 ? 5 : hits.totalHits); i++) {
+    for (RecordingHit hit : Search.getRelatedRecordings().get(transId.toString())) {
+      res.append("<a href='play?trans=" + hit.getUid() + "'>" + hit.getTitle() + "</a><br/>");
+    }
+    return res.toString();
+  }
 
-        Document doc2 = s.doc(hits.scoreDocs[i].doc);
+  /**
+   * @return root categories from the {@link #getCategoryTree() category tree}
+   */
+  public List<Category> getRootCategories() throws TsabException {
+    return getCategoryTree().getRoots();
+  }
 
-        String title = doc2.get("title");
-        //String category = doc2.get("category");
-        String uid = doc2.get("uid");
+  /**
+   * @return sub-categories from the {@link #getCategoryTree() category tree}
+   */
+  public List<Category> getSubCategories(Long parentCategoryId) throws TsabException {
+    return getCategoryTree().getChildren(parentCategoryId);
+  }
 
-        if (!uid.equals(code)) {
-          res.append("<a href='play?trans=" + uid + "'>" + title + "</a><br/>");
-        }
-      }
-    } catch (Exception e) {
-      throw new TsabException("Failed to find related recordings!", e);
+  /**
+   * @return snapshot of all categories. It is replaced when this process adds
+   *         or deletes a category, and reloaded after
+   *         {@link Constants#categoryTreeReloadInterval} ms to see changes of
+   *         other processes.
+   */
+  public CategoryTree getCategoryTree() throws TsabException {
+    CategoryTree tree = categoryTree.get();
+    if (tree != null && System.currentTimeMillis() - tree.getCreated() < Constants.categoryTreeReloadInterval) {
+      return tree;
     }
-    return res.toString();
+    long changes = categoryChanges.get();
+    CategoryTree loaded = loadCategoryTree();
+    if (categoryChanges.get() == changes) {
+      categoryTree.compareAndSet(tree, loaded);
+    }
+    return loaded;
   }
 
-  public List<Category> getRootCategories() throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+  private CategoryTree loadCategoryTree() throws TsabException {
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
       try {
-        return sess.createCriteria(Category.class).add(Restrictions.isNull("parent")).list();
+        long created = System.currentTimeMillis();
+        List<Category> all = sess.createCriteria(Category.class).list();
+        return new CategoryTree(all, created);
       } finally {
         tx.commit();
       }
@@ -556,33 +527,32 @@ public class TsabDao {
       try {
         tx.rollback();
       } finally {
-        throw new TsabException("Failed to find root categories!", e);
+        throw new TsabException("Failed to load categories!", e);
       }
 
     }
-
   }
 
-  public List<Category> getSubCategories(Long parentCategoryId) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
-    Transaction tx = sess.beginTransaction();
-    try {
-
-      try {
-        return sess.createCriteria(Category.class).add(Restrictions.eq("parent.id", parentCategoryId)).list();
-      } finally {
-        tx.commit();
+  private void addToCategoryTree(Category category) {
+    categoryChanges.incrementAndGet();
+    CategoryTree tree;
+    do {
+      tree = categoryTree.get();
+      if (tree == null) {
+        return;
       }
+    } while (!categoryTree.compareAndSet(tree, tree.with(category)));
+  }
 
-    } catch (Exception e) {
-
-      try {
-        tx.rollback();
-      } finally {
-        throw new TsabException("Failed to find sub-categories for parent:" + parentCategoryId, e);
+  private void removeFromCategoryTree(Long id) {
+    categoryChanges.incrementAndGet();
+    CategoryTree tree;
+    do {
+      tree = categoryTree.get();
+      if (tree == null) {
+        return;
       }
-
-    }
+    } while (!categoryTree.compareAndSet(tree, tree.without(id)));
   }
 
   public List<Transcription> getRecentlyAdded() throws TsabException {
@@ -590,13 +560,13 @@ public class TsabDao {
   }
 
   public List<Transcription> getMostPopular() throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
       try {
         return sess.createCriteria(Transcription.class).setMaxResults(MAX_MOST_POPULAR)
-            .addOrder(Order.desc("viewCount")).list();
+            .addOrder(Order.desc("viewCount")).setCacheable(true).setCacheRegion(MOST_POPULAR_REGION).list();
       } finally {
         tx.commit();
       }
@@ -612,19 +582,21 @@ public class TsabDao {
     }
   }
 
-  public void increaseViewCount(Long transId) throws TsabException {
-    Transcription trans = getTranscriptionById(transId);
-    Long currentCount = trans.getViewCount();
-    if (currentCount == null) {
-      currentCount = new Long(0);
-    }
-    trans.setViewCount(currentCount.longValue() + 1);
-    updateTranscription(trans);
+  /**
+   * Counts a view of the transcription, written to the database later by the
+   * {@link ViewCounter}.
+   */
+  public void increaseViewCount(Long transId) {
+    viewCounter.increment(transId);
+  }
+
+  public ViewCounter getViewCounter() {
+    return viewCounter;
   }
 
   public void deleteCategory(String catId) throws NumberFormatException, TsabException {
 
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
 
     Transaction tx = sess.beginTransaction();
     try {
@@ -639,6 +611,9 @@ public class TsabDao {
 
     } catch (Exception e) {
 
+      // some sub-categories may be gone, read them all again
+      categoryChanges.incrementAndGet();
+      categoryTree.set(null);
       try {
         tx.rollback();
       } finally {
@@ -646,12 +621,15 @@ public class TsabDao {
       }
 
     }
+    removeFromCategoryTree(new Long(catId));
 
   }
 
   private void internalDeleteCategory(Session sess, Long catId) throws TsabException {
     Category cat = (Category) sess.get(Category.class, catId);
-    int transSize = getTranscriptionsByCategoryId(catId).size();
+    // counted in this transaction, the session is shared with other DAO calls
+    int transSize = ((Number) sess.createCriteria(Transcription.class).add(Restrictions.eq("category.id", catId))
+        .setProjection(Projections.rowCount()).uniqueResult()).intValue();
     if (transSize > 0) {
       throw new TsabException("Unalbe to delete category with Id " + catId + "! There are " + transSize
           + " transcriptions in  that category!");
@@ -676,14 +654,14 @@ public class TsabDao {
       }
     }
 
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
 
+    Category newCat = new Category();
     Transaction tx = sess.beginTransaction();
     try {
 
       try {
 
-        Category newCat = new Category();
         if (subCat != null) {
           newCat.setParent(subCat);
         }
@@ -691,7 +669,6 @@ public class TsabDao {
         newCat.setTitle(catName);
         sess.persist(newCat);
         sess.flush();
-        return newCat;
       } finally {
         tx.commit();
       }
@@ -705,11 +682,13 @@ public class TsabDao {
       }
 
     }
+    addToCategoryTree(newCat);
+    return newCat;
 
   }
 
   public List<Transcription> getTranscriptionsByCategoryId(Long catId) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -731,42 +710,8 @@ public class TsabDao {
     }
   }
 
-  public List<Transcription> getTranscriptionsByDate(Date date) throws TsabException {
-
-    Calendar startDate = Calendar.getInstance();
-    startDate.setTime(date);
-
-    Calendar endDate = Calendar.getInstance();
-    endDate.setTime(date);
-    endDate.add(Calendar.DAY_OF_MONTH, 1);
-
-    log.debug("Finding transcriptions between " + startDate.getTime() + " and " + endDate.getTime());
-
-    Session sess = HibernateUtil.getSessionFactory().openSession();
-    Transaction tx = sess.beginTransaction();
-    try {
-
-      try {
-        return sess.createCriteria(Transcription.class)
-            .add(Restrictions.between("recorded", startDate.getTime(), endDate.getTime())).addOrder(Order.asc("title"))
-            .list();
-      } finally {
-        tx.commit();
-      }
-
-    } catch (Exception e) {
-
-      try {
-        tx.rollback();
-      } finally {
-        throw new TsabException("Failed to find transcriptions for date " + date, e);
-      }
-
-    }
-  }
-
   public void deleteFragments(Transcription newt) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -777,6 +722,8 @@ public class TsabDao {
         sess.delete(frag);
       }
 
+      journal(sess, newt.getId());
+
       tx.commit();
     } catch (Exception e) {
       try {
@@ -789,13 +736,13 @@ public class TsabDao {
   }
 
   public List<Transcription> getRecentlyAdded(int maxResults) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
       try {
         return sess.createCriteria(Transcription.class).setMaxResults(maxResults).addOrder(Order.desc("recorded"))
-            .list();
+            .setCacheable(true).list();
       } finally {
         tx.commit();
       }
@@ -812,7 +759,7 @@ public class TsabDao {
   }
 
   public User fetchUser(String email, String fullName) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -878,7 +825,7 @@ public class TsabDao {
   }
 
   public List<TranscriptionFragmentCorrection> getPendingCorrections() throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -903,7 +850,7 @@ public class TsabDao {
   }
 
   public List<User> getRegisteredUsers() throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -933,7 +880,7 @@ public class TsabDao {
       throw new TsabException("Requested role type '" + newRole + "' does not exist!");
     }
 
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -957,7 +904,7 @@ public class TsabDao {
   }
 
   public List<TranscriptionFragment> getTranscriptionFragments(Transcription current, User user) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
       try {
@@ -1012,7 +959,7 @@ public class TsabDao {
       throw new TsabException("User not authenticated, not accepting correction!");
     }
 
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
       try {
@@ -1046,6 +993,7 @@ public class TsabDao {
         if (Classifiers.USER_ROLE_POWER.equals(user.getRole()) || Classifiers.USER_ROLE_SUPER.equals(user.getRole())) {
           fragment.setText(text);
           corr.setState(Classifiers.CORRECTION_STATE_ACCEPTED);
+          journal(sess, tranid);
         }
         sess.update(fragment);
         sess.saveOrUpdate(corr);
@@ -1069,7 +1017,7 @@ public class TsabDao {
   }
 
   public void acceptCorrection(Long corrId) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
       try {
@@ -1084,6 +1032,7 @@ public class TsabDao {
         corr.getFragment().setText(corr.getText());
         sess.update(corr);
         sess.update(corr.getFragment());
+        journal(sess, corr.getFragment().getTranscription().getId());
         sess.flush();
 
         return;
@@ -1101,7 +1050,7 @@ public class TsabDao {
   }
 
   public void rejectCorrection(Long corrId) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
       try {
@@ -1126,7 +1075,7 @@ public class TsabDao {
   }
 
   public void deleteTopics(Transcription newt) throws TsabException {
-    Session sess = HibernateUtil.getSessionFactory().openSession();
+    Session sess = HibernateUtil.getSession();
     Transaction tx = sess.beginTransaction();
     try {
 
@@ -1137,6 +1086,8 @@ public class TsabDao {
         sess.delete(topic);
       }
 
+      journal(sess, newt.getId());
+
       tx.commit();
     } catch (Exception e) {
       try {
@@ -1147,4 +1098,99 @@ public class TsabDao {
     }
   }
 
+  /**
+   * Queues the recording for re-indexing. Must be called inside the transaction
+   * that changes the recording so that the journal entry commits or rolls back
+   * together with the change.
+   */
+  private void journal(Session sess, Long transcriptionId) {
+    sess.save(new IndexJournalEntry(transcriptionId));
+    journalWrites.incrementAndGet();
+  }
+
+  /**
+   * @return number of index journal entries this process has written
+   */
+  public long getJournalWriteCount() {
+    return journalWrites.get();
+  }
+
+  /**
+   * @return journal entries with ids <code>fromId</code> to <code>toId</code>
+   *         (inclusive), in id order
+   */
+  public List<IndexJournalEntry> getJournalEntries(long fromId, long toId, int maxResults) throws TsabException {
+    Session sess = HibernateUtil.getSession();
+    Transaction tx = sess.beginTransaction();
+    try {
+
+      try {
+        return sess.createCriteria(IndexJournalEntry.class).add(Restrictions.between("id", fromId, toId))
+            .addOrder(Order.asc("id")).setMaxResults(maxResults).list();
+      } finally {
+        tx.commit();
+      }
+
+    } catch (Exception e) {
+
+      try {
+        tx.rollback();
+      } finally {
+        throw new TsabException("Failed to read index journal ids " + fromId + "-" + toId, e);
+      }
+
+    }
+  }
+
+  /**
+   * @return id of the most recent journal entry created before
+   *         <code>createdBefore</code>, <code>0</code> if there is none
+   */
+  public long getLastJournalId(Date createdBefore) throws TsabException {
+    Session sess = HibernateUtil.getSession();
+    Transaction tx = sess.beginTransaction();
+    try {
+
+      try {
+        Long max = (Long) sess.createCriteria(IndexJournalEntry.class)
+            .add(Restrictions.lt("created", createdBefore)).setProjection(Projections.max("id")).uniqueResult();
+        return max == null ? 0 : max.longValue();
+      } finally {
+        tx.commit();
+      }
+
+    } catch (Exception e) {
+
+      try {
+        tx.rollback();
+      } finally {
+        throw new TsabException("Failed to read last index journal id!", e);
+      }
+
+    }
+  }
+
+  /**
+   * Deletes applied journal entries that are older than
+   * <code>createdBefore</code>.
+   * 
+   * @return number of deleted entries
+   */
+  public int purgeJournal(long upToId, Date createdBefore) throws TsabException {
+    Session sess = HibernateUtil.getSession();
+    Transaction tx = sess.beginTransaction();
+    try {
+      int count = sess.createQuery("delete from index_journal where id <= :id and created < :created")
+          .setLong("id", upToId).setTimestamp("created", createdBefore).executeUpdate();
+      tx.commit();
+      return count;
+    } catch (Exception e) {
+      try {
+        tx.rollback();
+      } finally {
+        throw new TsabException("Failed to purge index journal up to id " + upToId, e);
+      }
+    }
+  }
+
 }
@@ -0,0 +1,208 @@
+package ee.ioc.phon.tsab.dao;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+
+/**
+ * One database connection shared by all {@link TsabDao} calls of the current
+ * thread between {@link #begin(String)} and {@link #end()}, e.g. an HTTP
+ * request or a CLI command. The connection is checked out on first use and
+ * pinned in the {@link CountingConnectionProvider} until {@link #end()},
+ * instead of one checkout per DAO call.
+ * <p>
+ * Every DAO call still runs its own transaction in its own session, opened by
+ * the session factory on the pinned connection, so entities behave as with a
+ * session per call: they are detached once the call returns. A session opened
+ * on a connection passed in by the caller would bypass the second-level cache,
+ * and one session for the whole unit would only read entities cached before
+ * the unit began, as a session reads cached entries older than itself only.
+ * A DAO call made inside the transaction of another one joins its session.
+ * <p>
+ * Each unit counts its DAO calls, the sessions they opened and the connections
+ * it checked out, see {@link #getCalls()}. Without a unit every session checks
+ * out a connection of its own, so the sessions are the checkouts the unit
+ * saved against. The counts of all units of the process are added up, see
+ * {@link #getTotalCheckouts()}. Usage:
+ *
+ * <pre>
+ * UnitOfWork unit = UnitOfWork.begin(&quot;name&quot;);
+ * try {
+ *   ...
+ * } finally {
+ *   unit.end();
+ * }
+ * </pre>
+ */
+public class UnitOfWork {
+
+  private final static Logger log = Logger.getLogger(UnitOfWork.class);
+
+  private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<UnitOfWork>();
+
+  private static final AtomicLong totalUnits = new AtomicLong();
+
+  private static final AtomicLong totalSessions = new AtomicLong();
+
+  private static final AtomicLong totalCheckouts = new AtomicLong();
+
+  private final String name;
+
+  private final long checkoutsBefore = CountingConnectionProvider.getCheckouts();
+
+  // units begun inside this one, they end with it
+  private int nested;
+
+  private int calls;
+
+  private int sessions;
+
+  // set by end()
+  private long checkouts;
+
+  // session of the current or last DAO call
+  private Session session;
+
+  private UnitOfWork(String name) {
+    this.name = name;
+    CountingConnectionProvider.pin();
+  }
+
+  /**
+   * Starts a unit of work on the current thread. Inside another unit the
+   * outer one is returned and continues until its own end.
+   *
+   * @param name shown in the log, e.g. the request path
+   */
+  public static UnitOfWork begin(String name) {
+    UnitOfWork unit = current.get();
+    if (unit != null) {
+      unit.nested++;
+      return unit;
+    }
+    unit = new UnitOfWork(name);
+    current.set(unit);
+    return unit;
+  }
+
+  /**
+   * Closes the session and returns its connection to the pool. Transactions
+   * still open are rolled back.
+   */
+  public void end() {
+    if (nested > 0) {
+      nested--;
+      return;
+    }
+    current.remove();
+    try {
+      close();
+      LocalCacheProvider.flushChanges();
+    } finally {
+      checkouts = CountingConnectionProvider.getCheckouts() - checkoutsBefore;
+      totalUnits.incrementAndGet();
+      totalSessions.addAndGet(sessions);
+      totalCheckouts.addAndGet(checkouts);
+      if (log.isDebugEnabled()) {
+        log.debug(name + ": " + calls + " DAO calls in " + sessions + " sessions, " + checkouts
+            + " connection checkouts (" + sessions + " without a unit of work)");
+      }
+    }
+  }
+
+  /**
+   * @return number of DAO calls made in this unit so far
+   */
+  public int getCalls() {
+    return calls;
+  }
+
+  /**
+   * @return number of sessions opened by the DAO calls of this unit so far,
+   *         each would have checked out a connection without the unit
+   */
+  public int getSessions() {
+    return sessions;
+  }
+
+  /**
+   * @return number of connections this unit checked out, known once it has
+   *         ended
+   */
+  public long getCheckouts() {
+    return checkouts;
+  }
+
+  /**
+   * @return number of units of work ended in this process
+   */
+  public static long getTotalUnits() {
+    return totalUnits.get();
+  }
+
+  /**
+   * @return number of sessions opened in all units of work of this process
+   */
+  public static long getTotalSessions() {
+    return totalSessions.get();
+  }
+
+  /**
+   * @return number of connections checked out by all units of work of this
+   *         process
+   */
+  public static long getTotalCheckouts() {
+    return totalCheckouts.get();
+  }
+
+  private void close() {
+    try {
+      if (session != null) {
+        if (session.getTransaction().isActive()) {
+          log.warn(name + ": rolling back a transaction left open");
+          session.getTransaction().rollback();
+        }
+        session.close();
+      }
+    } finally {
+      try {
+        CountingConnectionProvider.unpin();
+      } catch (SQLException e) {
+        log.warn("Failed to return database connection to the pool!", e);
+      }
+    }
+  }
+
+  /**
+   * @return whether the current thread runs in a unit of work
+   */
+  static boolean isActive() {
+    return current.get() != null;
+  }
+
+  /**
+   * @return the session of the unit of work of the current thread,
+   *         <code>null</code> if there is none
+   */
+  static Session getCurrentSession() {
+    UnitOfWork unit = current.get();
+    return unit == null ? null : unit.getSession();
+  }
+
+  private Session getSession() {
+    calls++;
+    if (session != null) {
+      if (session.getTransaction().isActive()) {
+        return session;
+      }
+      // entities of earlier calls are detached, as with a session per call
+      session.close();
+    }
+    session = HibernateUtil.getSessionFactory().openSession();
+    sessions++;
+    return session;
+  }
+
+}
@@ -0,0 +1,177 @@
+package ee.ioc.phon.tsab.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.Work;
+
+import ee.ioc.phon.tsab.common.TsabException;
+import ee.ioc.phon.tsab.domain.Transcription;
+
+/**
+ * Counts views of recordings in memory and adds them to the database in one
+ * batch of <code>UPDATE ... SET viewCount = viewCount + ?</code> statements,
+ * so that playing a recording writes nothing and concurrent views are not
+ * lost. The counts are written every few seconds once {@link #start(long)}
+ * has been called and by {@link #stop()}; until then the view counts in the
+ * database lag behind.
+ * <p>
+ * There is one counter per recording viewed since startup, it is reset to 0
+ * rather than removed when written, as a view may be counted meanwhile.
+ */
+public class ViewCounter {
+
+  private final static Logger log = Logger.getLogger(ViewCounter.class);
+
+  private static final String UPDATE = "update transcription set viewCount = coalesce(viewCount, 0) + ? where id = ?";
+
+  private final ConcurrentMap<Long, AtomicLong> counts = new ConcurrentHashMap<Long, AtomicLong>();
+
+  private ScheduledExecutorService scheduler;
+
+  public void increment(Long transId) {
+    AtomicLong count = counts.get(transId);
+    if (count == null) {
+      AtomicLong created = new AtomicLong();
+      count = counts.putIfAbsent(transId, created);
+      if (count == null) {
+        count = created;
+      }
+    }
+    count.incrementAndGet();
+  }
+
+  /**
+   * @return views of recording <code>transId</code> not written to the
+   *         database yet
+   */
+  public long getPending(Long transId) {
+    AtomicLong count = counts.get(transId);
+    return count == null ? 0 : count.get();
+  }
+
+  /**
+   * Adds the views counted since the last flush to the database. If that
+   * fails, they are kept for the next one.
+   *
+   * @return number of recordings updated
+   */
+  public synchronized int flush() throws TsabException {
+    final List<Long> ids = new ArrayList<Long>();
+    final List<Long> views = new ArrayList<Long>();
+    for (Map.Entry<Long, AtomicLong> e : counts.entrySet()) {
+      long n = e.getValue().getAndSet(0);
+      if (n > 0) {
+        ids.add(e.getKey());
+        views.add(n);
+      }
+    }
+    if (ids.isEmpty()) {
+      return 0;
+    }
+
+    Session sess = HibernateUtil.getSession();
+    Transaction tx = sess.beginTransaction();
+    try {
+      sess.doWork(new Work() {
+        @Override
+        public void execute(Connection connection) throws SQLException {
+          PreparedStatement ps = connection.prepareStatement(UPDATE);
+          try {
+            for (int i = 0; i < ids.size(); i++) {
+              ps.setLong(1, views.get(i));
+              ps.setLong(2, ids.get(i));
+              ps.addBatch();
+            }
+            ps.executeBatch();
+          } finally {
+            ps.close();
+          }
+        }
+      });
+      tx.commit();
+    } catch (Exception e) {
+      for (int i = 0; i < ids.size(); i++) {
+        counts.get(ids.get(i)).addAndGet(views.get(i));
+      }
+      try {
+        tx.rollback();
+      } finally {
+        throw new TsabException("Failed to write view counts of " + ids.size() + " transcriptions!", e);
+      }
+    }
+
+    // the statements bypass the second-level and the query cache
+    for (Long id : ids) {
+      HibernateUtil.getSessionFactory().getCache().evictEntity(Transcription.class, id);
+    }
+    HibernateUtil.getSessionFactory().getCache().evictQueryRegion(TsabDao.MOST_POPULAR_REGION);
+    log.debug("Wrote view counts of " + ids.size() + " transcriptions");
+    return ids.size();
+  }
+
+  /**
+   * Starts writing the view counts in the background every
+   * <code>interval</code> milliseconds.
+   */
+  public synchronized void start(long interval) {
+    if (scheduler != null) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "tsab-view-counter");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        UnitOfWork unit = UnitOfWork.begin("view counts");
+        try {
+          flush();
+        } catch (Exception e) {
+          log.warn("Failed to write view counts!", e);
+        } finally {
+          unit.end();
+        }
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops the background writes and writes the remaining view counts.
+   */
+  public void stop() {
+    ScheduledExecutorService s;
+    synchronized (this) {
+      s = scheduler;
+      scheduler = null;
+    }
+    if (s != null) {
+      s.shutdown();
+    }
+    try {
+      flush();
+    } catch (TsabException e) {
+      log.warn("Failed to write view counts on shutdown!", e);
+    }
+  }
+
+}
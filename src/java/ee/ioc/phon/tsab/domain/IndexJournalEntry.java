@@ -0,0 +1,67 @@
+package ee.ioc.phon.tsab.domain;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Records that a {@link Transcription}, its fragments or topics were changed and
+ * the recording needs to be re-indexed. Written in the same transaction as the
+ * change itself.
+ */
+@Entity(name = "index_journal")
+@Table(name = "index_journal")
+public class IndexJournalEntry {
+
+  private Long id;
+  private Long transcriptionId;
+  private Date created;
+
+  public IndexJournalEntry() {
+  }
+
+  public IndexJournalEntry(Long transcriptionId) {
+    this.transcriptionId = transcriptionId;
+    this.created = new Date();
+  }
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  // not a foreign key, deleted transcriptions are journaled as well
+  @Column(name = "transcription_id", nullable = false)
+  public Long getTranscriptionId() {
+    return transcriptionId;
+  }
+
+  public void setTranscriptionId(Long transcriptionId) {
+    this.transcriptionId = transcriptionId;
+  }
+
+  @Column(nullable = false)
+  public Date getCreated() {
+    return created;
+  }
+
+  public void setCreated(Date created) {
+    this.created = created;
+  }
+
+  @Override
+  public String toString() {
+    return "IndexJournalEntry[id=" + id + "; transcriptionId=" + transcriptionId + "]";
+  }
+
+}
@@ -70,6 +70,8 @@ public class Transcription {
     this.category = category;
   }
 
+  // only changed by the ViewCounter, so updates of stale copies do not reset it
+  @Column(updatable=false)
   public Long getViewCount() {
     return viewCount;
   }
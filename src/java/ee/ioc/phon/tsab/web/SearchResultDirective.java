@@ -0,0 +1,144 @@
+package ee.ioc.phon.tsab.web;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.TreeMap;
+
+import ee.ioc.phon.tsab.common.FragmentHit;
+import ee.ioc.phon.tsab.common.QueryHighlighter;
+import ee.ioc.phon.tsab.common.RecordingHit;
+import ee.ioc.phon.tsab.common.Search;
+import ee.ioc.phon.tsab.common.SearchResult;
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.utility.StringUtil;
+
+/**
+ * Renders a {@link SearchResult} as HTML: the matching recordings with their
+ * highlighted fragments, followed by the hit counts per facet value as
+ * drill-down links. Used as <code>&lt;@searchResult/&gt;</code> in search.ftl;
+ * the HTML is written straight to the template output as it is produced
+ * instead of being built as one string first.
+ */
+public class SearchResultDirective implements TemplateDirectiveModel {
+
+  private static final int MAX_FACET_VALUES = 10;
+
+  private final SearchResult result;
+
+  private final String queryString;
+
+  private final Map<String, String> drillDown;
+
+  private final ResourceBundle bundle;
+
+  /**
+   * @param queryString normalized query, see
+   *          {@link Search#normalizeQuery(String)}
+   * @param drillDown selected value per facet field
+   * @param bundle messages of the current language
+   */
+  public SearchResultDirective(SearchResult result, String queryString, Map<String, String> drillDown,
+      ResourceBundle bundle) {
+    this.result = result;
+    this.queryString = queryString;
+    this.drillDown = new TreeMap<String, String>(drillDown);
+    this.bundle = bundle;
+  }
+
+  @Override
+  public void execute(Environment env, Map params, TemplateModel[] loopVars, TemplateDirectiveBody body)
+      throws TemplateException, IOException {
+    Writer out = env.getOut();
+    writeRecordings(out);
+    writeFacets(out);
+  }
+
+  private void writeRecordings(Writer out) throws IOException {
+    QueryHighlighter highlighter = new QueryHighlighter(Search.getTextQuery(queryString));
+    String play = bundle.getString("control_play");
+
+    int playbuttons = 0;
+    int i = 0;
+    for (RecordingHit hit : result.getRecordings()) {
+      String uid = hit.getUid();
+
+      out.write("<h3><a href='play?trans=" + uid + "'>" + (++i) + ". " + hit.getTitle() + "</a></h3>");
+
+      for (FragmentHit frag : hit.getFragments()) {
+        out.write("<a href='javascript:donothing();' id='playbutton_" + playbuttons + "' onclick='playOneLine("
+            + playbuttons + "," + uid + ", " + frag.getTime() + ")'>");
+        out.write(play);
+        out.write("</a> ...");
+        highlighter.highlight(frag.getText(), out);
+        out.write("...<br/>");
+        playbuttons++;
+      }
+    }
+  }
+
+  /**
+   * Writes the most frequent values of each facet as links narrowing the
+   * search down to them, and the selected values as links removing them.
+   */
+  private void writeFacets(Writer out) throws IOException {
+    out.write("<div class='facets'>");
+    for (Map.Entry<String, Map<String, Integer>> facet : result.getFacets().entrySet()) {
+      String field = facet.getKey();
+
+      List<Map.Entry<String, Integer>> values = new ArrayList<Map.Entry<String, Integer>>(facet.getValue().entrySet());
+      if (values.isEmpty()) {
+        continue;
+      }
+      Collections.sort(values, new Comparator<Map.Entry<String, Integer>>() {
+        @Override
+        public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+          return b.getValue().compareTo(a.getValue());
+        }
+      });
+
+      out.write("<h4>" + bundle.getString("facet_" + field) + "</h4>");
+
+      String selected = drillDown.get(field);
+      if (selected != null) {
+        Map<String, String> without = new TreeMap<String, String>(drillDown);
+        without.remove(field);
+        out.write("<strong>" + StringUtil.HTMLEnc(selected) + "</strong> <a href='" + searchUrl(without)
+            + "'>[x]</a><br/>");
+        continue;
+      }
+
+      for (Map.Entry<String, Integer> value : values.subList(0, Math.min(MAX_FACET_VALUES, values.size()))) {
+        Map<String, String> with = new TreeMap<String, String>(drillDown);
+        with.put(field, value.getKey());
+        out.write("<a href='" + searchUrl(with) + "'>" + StringUtil.HTMLEnc(value.getKey()) + "</a> ("
+            + value.getValue() + ")<br/>");
+      }
+    }
+    out.write("</div>");
+  }
+
+  private String searchUrl(Map<String, String> drillDown) {
+    try {
+      StringBuilder url = new StringBuilder("search?q=").append(URLEncoder.encode(queryString, "UTF-8"));
+      for (Map.Entry<String, String> e : drillDown.entrySet()) {
+        url.append("&amp;").append(e.getKey()).append('=').append(URLEncoder.encode(e.getValue(), "UTF-8"));
+      }
+      return url.toString();
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,53 @@
+package ee.ioc.phon.tsab.web;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.apache.log4j.Logger;
+
+import ee.ioc.phon.tsab.common.Constants;
+import ee.ioc.phon.tsab.common.IndexSearcherManager;
+import ee.ioc.phon.tsab.common.Search;
+import ee.ioc.phon.tsab.common.TsabException;
+import ee.ioc.phon.tsab.dao.TsabDaoService;
+
+/**
+ * Runs the background index journal drain, the index change watcher and the
+ * view count writer while the web application is up, and writes the remaining
+ * view counts and releases the Lucene index when it is stopped. The watcher
+ * reopens the searcher shortly after the CLI commits to the index and drops the
+ * cached search results.
+ */
+public class TsabContextListener implements ServletContextListener {
+
+  private final static Logger log = Logger.getLogger(TsabContextListener.class);
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    Search.getJournalIndexer().start(Constants.indexJournalInterval);
+    TsabDaoService.getDao().getViewCounter().start(Constants.viewCountFlushInterval);
+    try {
+      IndexSearcherManager searcherManager = Search.getSearcherManager();
+      searcherManager.addReopenListener(new Runnable() {
+        @Override
+        public void run() {
+          TsabDaoService.getDao().getSearchCache().clear();
+        }
+      });
+      searcherManager.startWatching();
+    } catch (TsabException e) {
+      log.error("Failed to start watching the Lucene index for changes!", e);
+    }
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    TsabDaoService.getDao().getViewCounter().stop();
+    try {
+      Search.close();
+    } catch (TsabException e) {
+      log.warn("Failed to close Lucene index!", e);
+    }
+  }
+
+}
@@ -2,8 +2,10 @@ package ee.ioc.phon.tsab.web;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -22,7 +24,12 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
 
+import ee.ioc.phon.tsab.common.RecordingHit;
+import ee.ioc.phon.tsab.common.Search;
+import ee.ioc.phon.tsab.common.SearchResult;
+import ee.ioc.phon.tsab.common.TermSuggester;
 import ee.ioc.phon.tsab.common.TsabException;
+import ee.ioc.phon.tsab.dao.CategoryTree;
 import ee.ioc.phon.tsab.dao.TsabDaoService;
 import ee.ioc.phon.tsab.domain.Category;
 import ee.ioc.phon.tsab.domain.Classifiers;
@@ -42,10 +49,14 @@ public class TsabServlet extends FreemarkerServlet {
 
   private final static Logger log = Logger.getLogger(TsabServlet.class);
 
-  private final SimpleDateFormat sdf = new SimpleDateFormat("dd-MM-yyyy");
-
   private final static String PARAM_TSAB_LANGUAGE = "TsabLanguage";
 
+  private static final int API_DEFAULT_PAGE_SIZE = 20;
+
+  private static final int API_MAX_PAGE_SIZE = 100;
+
+  private static final int API_MAX_SUGGESTIONS = 10;
+
   private ResourceBundle bundle;
 
   public TsabServlet() {
@@ -66,7 +77,12 @@ public class TsabServlet extends FreemarkerServlet {
     log.debug("Handling page: " + path);
 
     try {
-      handleMainLayout(request, response);
+      if (path != null && path.startsWith("/api/")) {
+        // JSON for scripts, no page layout needed
+        request.setAttribute("statics", BeansWrapper.getDefaultInstance().getStaticModels());
+      } else {
+        handleMainLayout(request, response);
+      }
 
       if ("/index".equals(path)) {
         handleIndex(request, response);
@@ -74,12 +90,20 @@ public class TsabServlet extends FreemarkerServlet {
         handleCategory(request, response);
       } else if ("/search".equals(path)) {
         handleSearch(request, response);
+      } else if ("/api/search".equals(path)) {
+        handleApiSearch(request, response);
+      } else if ("/api/find".equals(path)) {
+        handleApiFind(request, response);
+      } else if ("/api/suggest".equals(path)) {
+        handleApiSuggest(request, response);
       } else if ("/play".equals(path)) {
         handlePlay(request, response);
       } else if ("/loadAudio".equals(path)) {
         handleLoadAudio(request, response);
       } else if ("/calendar".equals(path)) {
         handleCalendar(request, response);
+      } else if ("/speakers".equals(path)) {
+        handleSpeakers(request, response);
       } else if ("/rssRecent".equals(path)) {
         handleRSSRecent(request, response);
       } else if ("/account".equals(path)) {
@@ -109,20 +133,71 @@ public class TsabServlet extends FreemarkerServlet {
     super.doGet(request, response);
   }
 
-  private void handleCalendar(HttpServletRequest request, HttpServletResponse response) throws TsabException,
-      ParseException {
+  /**
+   * Recordings of one day (<code>day=dd-MM-yyyy</code>) or one month
+   * (<code>month=MM-yyyy</code>), listed from the search index. Invalid dates
+   * are rejected with status 400.
+   */
+  private void handleCalendar(HttpServletRequest request, HttpServletResponse response) throws TsabException {
 
-    String cal = request.getParameter("day");
+    String day = request.getParameter("day");
+    String month = request.getParameter("month");
 
-    Date date = sdf.parse(cal);
+    Calendar start = Calendar.getInstance();
+    Calendar end = Calendar.getInstance();
+    try {
+      if (day == null && month != null) {
+        start.setTime(parseDate(month, "MM-yyyy"));
+        end.setTime(start.getTime());
+        end.add(Calendar.MONTH, 1);
+        request.setAttribute("month", Boolean.TRUE);
+      } else {
+        start.setTime(parseDate(day, "dd-MM-yyyy"));
+        end.setTime(start.getTime());
+        end.add(Calendar.DAY_OF_MONTH, 1);
+      }
+    } catch (TsabException e) {
+      log.debug("Rejected calendar request", e);
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      request.setAttribute("error", e.getMessage());
+      return;
+    }
 
-    List<Transcription> trans = TsabDaoService.getDao().getTranscriptionsByDate(date);
+    List<RecordingHit> trans = Search.getRecordings(start.getTime(), end.getTime());
 
     request.setAttribute("trans", trans);
-    request.setAttribute("date", date);
+    request.setAttribute("date", start.getTime());
 
   }
 
+  /**
+   * @return <code>value</code> parsed with <code>pattern</code>, without
+   *         rolling over out of range fields
+   * @throws TsabException if <code>value</code> is missing, invalid or has
+   *           anything after the date
+   */
+  static Date parseDate(String value, String pattern) throws TsabException {
+    if (value == null) {
+      throw new TsabException("Date not specified!");
+    }
+    SimpleDateFormat format = new SimpleDateFormat(pattern);
+    format.setLenient(false);
+    ParsePosition pos = new ParsePosition(0);
+    Date date = format.parse(value, pos);
+    if (date == null || pos.getIndex() != value.length()) {
+      throw new TsabException("Invalid date " + value + ", expected " + pattern);
+    }
+    return date;
+  }
+
+  /**
+   * All speakers with the number of fragments they speak in, from the search
+   * index.
+   */
+  private void handleSpeakers(HttpServletRequest request, HttpServletResponse response) throws TsabException {
+    request.setAttribute("speakers", Search.getSpeakerList().getSpeakers());
+  }
+
   private void handleLoadAudio(HttpServletRequest request, HttpServletResponse response) throws TsabException {
     // Play page
     Long transId = new Long(request.getParameter("audio"));
@@ -183,17 +258,14 @@ public class TsabServlet extends FreemarkerServlet {
 
     initLoginModel(request, response);
 
-    // Main layout
-    List<Category> mainCategories;
-    mainCategories = TsabDaoService.getDao().getRootCategories();
+    // Main layout, categories from the in-memory tree
+    CategoryTree tree = TsabDaoService.getDao().getCategoryTree();
+    List<Category> mainCategories = tree.getRoots();
     request.setAttribute("mainCategories", mainCategories);
 
     Map<String, List<Category>> subCategories = new HashMap<String, List<Category>>();
-    Iterator<Category> it = mainCategories.iterator();
-    while (it.hasNext()) {
-      Category mainCat = (Category) it.next();
-      List<Category> subList = TsabDaoService.getDao().getSubCategories(mainCat.getId());
-      subCategories.put(mainCat.getId().toString(), subList);
+    for (Category mainCat : mainCategories) {
+      subCategories.put(mainCat.getId().toString(), tree.getChildren(mainCat.getId()));
     }
 
     request.setAttribute("subCats", subCategories);
@@ -204,16 +276,15 @@ public class TsabServlet extends FreemarkerServlet {
     String cat = request.getParameter("cat");
     String trans = request.getParameter("trans");
     if (cat != null && cat.length() > 0) {
-      activeRootCategory = TsabDaoService.getDao().getCategoryById(new Long(cat));
+      activeRootCategory = tree.getRoot(new Long(cat));
     } else if (trans != null && trans.length() > 0) {
-      activeRootCategory = TsabDaoService.getDao().getTranscriptionById(new Long(trans)).getCategory();
-      if (activeRootCategory != null) {
-        request.setAttribute("currentCategoryId", activeRootCategory.getId());
+      Category category = TsabDaoService.getDao().getTranscriptionById(new Long(trans)).getCategory();
+      if (category != null) {
+        request.setAttribute("currentCategoryId", category.getId());
+        activeRootCategory = tree.getRoot(category.getId());
       }
     }
 
-    activeRootCategory = traverseToRootCategory(activeRootCategory);
-
     if (activeRootCategory != null) {
       request.setAttribute("activeRootCategory", activeRootCategory);
     }
@@ -232,13 +303,6 @@ public class TsabServlet extends FreemarkerServlet {
 
   }
 
-  private Category traverseToRootCategory(Category activeMainCategory) {
-    if (activeMainCategory != null && activeMainCategory.getParent() != null) {
-      return traverseToRootCategory(activeMainCategory.getParent());
-    }
-    return activeMainCategory;
-  }
-
   private void handlePlay(HttpServletRequest request, HttpServletResponse response) {
 
     String debugStr = request.getParameter("zebug");
@@ -324,36 +388,138 @@ public class TsabServlet extends FreemarkerServlet {
     // Search page
     String queryString = request.getParameter("q");
 
-    String searchResult = "";
-
     if (queryString == null || queryString.length() == 0) {
-      searchResult = bundle.getString("search_query_not_specified");
+      request.setAttribute("searchMessage", bundle.getString("search_query_not_specified"));
     } else {
 
       log.debug("Searching for " + queryString);
 
-      searchResult = TsabDaoService.getDao().searchTranscriptions(queryString);
-      if (searchResult != null) {
-        String playstr = bundle.getString("control_play");
-        searchResult = searchResult.replaceAll("CONTROL_PLAY", playstr);
+      Map<String, String> drillDown = getDrillDown(request);
+      SearchResult result = TsabDaoService.getDao().searchTranscriptions(queryString, drillDown);
+      log.debug("Search cache: " + TsabDaoService.getDao().getSearchCache());
 
-      }
+      // rendered by search.ftl straight into the response
+      request.setAttribute("searchResult", new SearchResultDirective(result, Search.normalizeQuery(queryString),
+          drillDown, bundle));
     }
 
-    request.setAttribute("searchResult", searchResult);
-
     if (debugEnabled) {
       request.setAttribute("zebug", Boolean.TRUE);
     }
 
   }
 
+  /**
+   * @return facet values selected with request parameters named after the
+   *         facet fields, and the date range of parameter <code>recorded</code>
+   */
+  private Map<String, String> getDrillDown(HttpServletRequest request) {
+    Map<String, String> drillDown = new HashMap<String, String>();
+    for (String field : Search.FACET_FIELDS) {
+      String value = request.getParameter(field);
+      if (value != null && value.length() > 0) {
+        drillDown.put(field, value);
+      }
+    }
+    String recorded = request.getParameter(Search.FIELD_RECORDED);
+    if (recorded != null && recorded.length() > 0) {
+      drillDown.put(Search.FIELD_RECORDED, recorded);
+    }
+    return drillDown;
+  }
+
+  /**
+   * One page of search hits as JSON. Parameters: <code>q</code> (query, same
+   * syntax as the search page), <code>size</code> (hits per page),
+   * <code>cursor</code> (<code>next</code> of the previous page, rejected once
+   * the index has changed), a value for any of the facets and a date range (<code>recorded=2009..2010</code>) to
+   * narrow the search down to.
+   */
+  private void handleApiSearch(HttpServletRequest request, HttpServletResponse response) {
+    String queryString = request.getParameter("q");
+    String cursor = request.getParameter("cursor");
+    String sizeStr = request.getParameter("size");
+
+    try {
+      if (queryString == null || queryString.trim().length() == 0) {
+        throw new TsabException("Search query not specified!");
+      }
+      int size = API_DEFAULT_PAGE_SIZE;
+      if (sizeStr != null && sizeStr.length() > 0) {
+        try {
+          size = Math.min(API_MAX_PAGE_SIZE, Math.max(1, Integer.parseInt(sizeStr)));
+        } catch (NumberFormatException e) {
+          throw new TsabException("Invalid page size: " + sizeStr, e);
+        }
+      }
+
+      String query = Search.toPrefixQuery(Search.normalizeQuery(queryString));
+      request.setAttribute("page", Search.searchPage(query, Search.getDrillDownFilter(getDrillDown(request)),
+          cursor == null || cursor.length() == 0 ? null : cursor, size));
+    } catch (TsabException e) {
+      log.debug("Rejected API search request", e);
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      request.setAttribute("error", e.getMessage());
+    }
+  }
+
+  /**
+   * Start times of the fragments of one recording containing the given words,
+   * as JSON. Parameters: <code>trans</code> (recording id) and <code>q</code>
+   * (words, each matching the words it is a prefix of).
+   */
+  private void handleApiFind(HttpServletRequest request, HttpServletResponse response) {
+    String trans = request.getParameter("trans");
+    String queryString = request.getParameter("q");
+
+    try {
+      if (queryString == null || queryString.trim().length() == 0) {
+        throw new TsabException("Search query not specified!");
+      }
+      try {
+        trans = Long.valueOf(trans).toString();
+      } catch (NumberFormatException e) {
+        throw new TsabException("Invalid recording id: " + trans, e);
+      }
+      request.setAttribute("trans", trans);
+      request.setAttribute("times", Search.findInRecording(trans, queryString));
+    } catch (TsabException e) {
+      log.debug("Rejected API find request", e);
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      request.setAttribute("error", e.getMessage());
+    }
+  }
+
+  /**
+   * Completions of the last word of the search box as JSON. Parameter
+   * <code>q</code>: what has been typed so far.
+   */
+  private void handleApiSuggest(HttpServletRequest request, HttpServletResponse response) {
+    String queryString = request.getParameter("q");
+
+    List<TermSuggester.Suggestion> suggestions = Collections.emptyList();
+    String typed = "";
+    if (queryString != null && queryString.length() > 0 && !Character.isWhitespace(queryString.charAt(queryString
+        .length() - 1))) {
+      String query = Search.normalizeQuery(queryString);
+      int space = query.lastIndexOf(' ');
+      typed = query.substring(0, space + 1);
+      try {
+        suggestions = Search.getTermSuggester().suggest(query.substring(space + 1), API_MAX_SUGGESTIONS);
+      } catch (TsabException e) {
+        log.warn("Failed to suggest words for " + queryString, e);
+      }
+    }
+    request.setAttribute("typed", typed);
+    request.setAttribute("suggestions", suggestions);
+  }
+
   private void handleCategory(HttpServletRequest request, HttpServletResponse response) throws ServletException {
     // Category page
     Long catId = new Long(request.getParameter("cat"));
     Category cat;
     try {
-      cat = TsabDaoService.getDao().getCategoryById(catId);
+      cat = TsabDaoService.getDao().getCategoryTree().get(catId);
 
       request.setAttribute("category", cat);
 
@@ -1,13 +1,64 @@
 package ee.ioc.phon.tsab.web;
 
+import ee.ioc.phon.tsab.common.TsabException;
+import ee.ioc.phon.tsab.dao.TsabDaoService;
 import ee.ioc.phon.tsab.domain.Category;
 
 public class TsabWebUtil {
 
-  public final static String getCategoryBreadcrumb(Category cat) {
+  /**
+   * @return links to <code>cat</code> and its parents, read from the in-memory
+   *         category tree
+   */
+  public final static String getCategoryBreadcrumb(Category cat) throws TsabException {
+    if (cat != null) {
+      Category known = TsabDaoService.getDao().getCategoryTree().get(cat.getId());
+      if (known != null) {
+        cat = known;
+      }
+    }
     return printCatLinks(cat, "");
   }
 
+  /**
+   * @return <code>str</code> as a quoted JSON string, <code>null</code> as
+   *         JSON null
+   */
+  public final static String toJson(String str) {
+    if (str == null) {
+      return "null";
+    }
+    StringBuilder sb = new StringBuilder(str.length() + 2);
+    sb.append('"');
+    for (int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      switch (c) {
+      case '"':
+        sb.append("\\\"");
+        break;
+      case '\\':
+        sb.append("\\\\");
+        break;
+      case '\n':
+        sb.append("\\n");
+        break;
+      case '\r':
+        sb.append("\\r");
+        break;
+      case '\t':
+        sb.append("\\t");
+        break;
+      default:
+        if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+          sb.append(String.format("\\u%04x", (int) c));
+        } else {
+          sb.append(c);
+        }
+      }
+    }
+    return sb.append('"').toString();
+  }
+
   private static String printCatLinks(Category cat, String current) {
     if (cat == null) {
       return current;
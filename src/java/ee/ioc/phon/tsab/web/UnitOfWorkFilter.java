@@ -0,0 +1,43 @@
+package ee.ioc.phon.tsab.web;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import ee.ioc.phon.tsab.dao.UnitOfWork;
+
+/**
+ * Runs every request in a {@link UnitOfWork}, so that all DAO calls of a page
+ * share one database session and connection, released when the page has been
+ * rendered.
+ */
+public class UnitOfWorkFilter implements Filter {
+
+  @Override
+  public void init(FilterConfig config) throws ServletException {
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+      ServletException {
+    HttpServletRequest req = (HttpServletRequest) request;
+    UnitOfWork unit = UnitOfWork.begin(req.getServletPath()
+        + (req.getPathInfo() == null ? "" : req.getPathInfo()));
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      unit.end();
+    }
+  }
+
+  @Override
+  public void destroy() {
+  }
+
+}
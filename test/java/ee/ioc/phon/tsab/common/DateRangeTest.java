@@ -0,0 +1,63 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+public class DateRangeTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  private static String format(Date date) {
+    return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(date);
+  }
+
+  public void testYear() throws Exception {
+    assertEquals("2009-01-01 00:00:00.000", format(Search.parsePeriod("2009", false)));
+    assertEquals("2010-01-01 00:00:00.000", format(Search.parsePeriod("2009", true)));
+  }
+
+  public void testMonth() throws Exception {
+    assertEquals("2009-02-01 00:00:00.000", format(Search.parsePeriod("2009-02", false)));
+    assertEquals("2009-03-01 00:00:00.000", format(Search.parsePeriod("2009-02", true)));
+    assertEquals("2010-01-01 00:00:00.000", format(Search.parsePeriod("2009-12", true)));
+  }
+
+  public void testDay() throws Exception {
+    assertEquals("2009-02-28 00:00:00.000", format(Search.parsePeriod("2009-02-28", false)));
+    assertEquals("2009-03-01 00:00:00.000", format(Search.parsePeriod("2009-02-28", true)));
+    assertEquals("2008-03-01 00:00:00.000", format(Search.parsePeriod("2008-02-29", true)));
+  }
+
+  public void testInvalid() {
+    for (String period : new String[] { "", "09", "20091", "2009-13", "2009-02-30", "2009/02", "2009-1-1",
+        "2009-02-2x" }) {
+      try {
+        Search.parsePeriod(period, false);
+        fail("Invalid period accepted: " + period);
+      } catch (TsabException e) {
+        // expected
+      }
+    }
+  }
+
+  public void testRange() throws Exception {
+    assertNotNull(Search.getDateRangeFilter("2009..2010-06"));
+    assertNotNull(Search.getDateRangeFilter("..2010"));
+    assertNotNull(Search.getDateRangeFilter("2009-05"));
+    try {
+      Search.getDateRangeFilter("..");
+      fail("Empty range accepted");
+    } catch (TsabException e) {
+      // expected
+    }
+  }
+
+}
@@ -0,0 +1,59 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.File;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.RAMDirectory;
+
+public class FacetCollectorTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  private static void add(IndexWriter w, String type, String category, String speaker) throws Exception {
+    Document doc = new Document();
+    doc.add(new Field(Search.FIELD_TYPE, type, Field.Store.YES, Field.Index.NOT_ANALYZED));
+    doc.add(new Field(Search.FIELD_CATEGORY, category, Field.Store.YES, Field.Index.NOT_ANALYZED));
+    if (speaker != null) {
+      doc.add(new Field(Search.FIELD_SPEAKER, speaker, Field.Store.YES, Field.Index.NOT_ANALYZED));
+    }
+    w.addDocument(doc);
+  }
+
+  public void testCountsFragmentsOnly() throws Exception {
+    RAMDirectory dir = new RAMDirectory();
+    IndexWriter w = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.LIMITED);
+    add(w, Search.TYPE_RECORDING, "Uudised", null);
+    add(w, Search.TYPE_FRAGMENT, "Uudised", "Jaan");
+    add(w, Search.TYPE_FRAGMENT, "Uudised", "Mari");
+    add(w, Search.TYPE_RECORDING, "Sport", null);
+    add(w, Search.TYPE_FRAGMENT, "Sport", "Jaan");
+    w.close();
+
+    IndexSearcher s = new IndexSearcher(dir, true);
+    PagingCollector hits = new PagingCollector(10, null);
+    FacetCollector facets = new FacetCollector(hits, Search.FIELD_CATEGORY, Search.FIELD_SPEAKER);
+    s.search(new MatchAllDocsQuery(), facets);
+
+    // every hit is passed on
+    assertEquals(5, hits.getTotalHits());
+    Map<String, Map<String, Integer>> counts = facets.getFacets();
+    assertEquals(Integer.valueOf(2), counts.get(Search.FIELD_CATEGORY).get("Uudised"));
+    assertEquals(Integer.valueOf(1), counts.get(Search.FIELD_CATEGORY).get("Sport"));
+    assertEquals(Integer.valueOf(2), counts.get(Search.FIELD_SPEAKER).get("Jaan"));
+    assertEquals(Integer.valueOf(1), counts.get(Search.FIELD_SPEAKER).get("Mari"));
+  }
+
+}
@@ -0,0 +1,131 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Similarity;
+import org.apache.lucene.store.RAMDirectory;
+
+public class GroupingCollectorTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  // tid, type and score of each document
+  private static final String[][] HITS = { { "a", Search.TYPE_RECORDING, "0.5" },
+      { "a", Search.TYPE_FRAGMENT, "0.4" }, { "a", Search.TYPE_FRAGMENT, "0.6" },
+      { "b", Search.TYPE_FRAGMENT, "0.9" }, { "c", Search.TYPE_RECORDING, "0.6" },
+      { "c", Search.TYPE_FRAGMENT, "0.1" }, { "d", Search.TYPE_FRAGMENT, "0.2" } };
+
+  private IndexReader reader;
+
+  @Override
+  protected void setUp() throws Exception {
+    RAMDirectory dir = new RAMDirectory();
+    IndexWriter w = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.LIMITED);
+    for (String[] hit : HITS) {
+      Document doc = new Document();
+      doc.add(new Field(Search.FIELD_TID, hit[0], Field.Store.YES, Field.Index.NOT_ANALYZED));
+      doc.add(new Field(Search.FIELD_TYPE, hit[1], Field.Store.YES, Field.Index.NOT_ANALYZED));
+      w.addDocument(doc);
+    }
+    w.close();
+    reader = IndexReader.open(dir, true);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    reader.close();
+  }
+
+  private GroupingCollector collect(int maxGroups, int hitsPerGroup) throws Exception {
+    GroupingCollector collector = new GroupingCollector(maxGroups, hitsPerGroup);
+    FixedScorer scorer = new FixedScorer();
+    collector.setScorer(scorer);
+    collector.setNextReader(reader, 0);
+    // out of order, as BooleanScorer may deliver them
+    for (int doc = HITS.length - 1; doc >= 0; doc--) {
+      scorer.score = Float.parseFloat(HITS[doc][2]);
+      collector.collect(doc);
+    }
+    return collector;
+  }
+
+  private static String tids(List<GroupingCollector.Group> groups) {
+    StringBuilder sb = new StringBuilder();
+    for (GroupingCollector.Group group : groups) {
+      sb.append(group.getTid());
+    }
+    return sb.toString();
+  }
+
+  public void testOrder() throws Exception {
+    GroupingCollector collector = collect(10, 2);
+    assertEquals(HITS.length, collector.getTotalHits());
+    // a and c tie on 0.6, a has the lower document
+    assertEquals("bacd", tids(collector.getGroups()));
+  }
+
+  public void testTopGroups() throws Exception {
+    List<GroupingCollector.Group> groups = collect(3, 2).getGroups();
+    assertEquals("bac", tids(groups));
+    assertEquals(3, groups.get(0).getBestDoc());
+    assertEquals(2, groups.get(1).getBestDoc());
+    assertEquals(4, groups.get(2).getBestDoc());
+
+    assertEquals("", tids(collect(0, 2).getGroups()));
+  }
+
+  public void testFragmentHits() throws Exception {
+    List<GroupingCollector.Group> groups = collect(10, 1).getGroups();
+    // the best fragment only, recording documents are not fragment hits
+    assertEquals(1, groups.get(1).getFragmentHits().length);
+    assertEquals(2, groups.get(1).getFragmentHits()[0].doc);
+    assertEquals(5, groups.get(2).getFragmentHits()[0].doc);
+
+    assertEquals(2, collect(10, 5).getGroups().get(1).getFragmentHits().length);
+    assertEquals(0, collect(10, 0).getGroups().get(0).getFragmentHits().length);
+  }
+
+  private static class FixedScorer extends Scorer {
+
+    float score;
+
+    FixedScorer() {
+      super(Similarity.getDefault());
+    }
+
+    @Override
+    public float score() {
+      return score;
+    }
+
+    @Override
+    public int docID() {
+      return -1;
+    }
+
+    @Override
+    public int nextDoc() {
+      return NO_MORE_DOCS;
+    }
+
+    @Override
+    public int advance(int target) {
+      return NO_MORE_DOCS;
+    }
+  }
+
+}
@@ -0,0 +1,102 @@
+package ee.ioc.phon.tsab.common;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares {@link QueryHighlighter} with the regular expression highlighting
+ * it replaced, rendering the lines of one result page per iteration. Not a
+ * unit test, run it by hand:
+ *
+ * <pre>
+ * java ee.ioc.phon.tsab.common.HighlighterBenchmark [lines per page] [iterations]
+ * </pre>
+ */
+public class HighlighterBenchmark {
+
+  private static final String[] WORDS = { "kala", "kalamees", "meri", "rannas", "ja", "oli", "see", "aasta",
+      "suurkala", "ilm", "t\u00e4na", "homme", "p\u00e4ike", "tuul", "laev", "sadam", "saarel", "inimesed" };
+
+  private static final String[] QUERIES = { "kala*", "kala* meri*", "s* t* p*" };
+
+  public static void main(String[] args) {
+    int lines = args.length > 0 ? Integer.parseInt(args[0]) : 150;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+    Random random = new Random(42);
+    String[] page = new String[lines];
+    for (int i = 0; i < lines; i++) {
+      StringBuilder line = new StringBuilder();
+      for (int w = 0; w < 15; w++) {
+        line.append(WORDS[random.nextInt(WORDS.length)]).append(w % 7 == 6 ? ", " : " ");
+      }
+      page[i] = line.toString();
+    }
+
+    System.out.println("query\tregex ms/page\thighlighter ms/page");
+    for (String q : QUERIES) {
+      // the old search passed the raw words to the regex, without the wildcards
+      String words = q.replace("*", "");
+      System.out.println(q + "\t" + timeRegex(words, page, iterations) + "\t"
+          + timeHighlighter(q, page, iterations));
+    }
+  }
+
+  private static float timeRegex(String query, String[] page, int iterations) {
+    long sink = 0;
+    long start = 0;
+    for (int round = 0; round < 2; round++) {
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        for (String line : page) {
+          sink += regexHighlight(query, line).length();
+        }
+      }
+    }
+    return report(start, iterations, sink);
+  }
+
+  private static float timeHighlighter(String query, String[] page, int iterations) {
+    long sink = 0;
+    long start = 0;
+    for (int round = 0; round < 2; round++) {
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        QueryHighlighter highlighter = new QueryHighlighter(query);
+        for (String line : page) {
+          sink += highlighter.highlight(line).length();
+        }
+      }
+    }
+    return report(start, iterations, sink);
+  }
+
+  private static float report(long start, int iterations, long sink) {
+    float ms = (System.nanoTime() - start) / 1000000f / iterations;
+    // keeps the JIT from dropping the work
+    if (sink == 42) {
+      System.out.print("");
+    }
+    return ms;
+  }
+
+  /**
+   * The implementation of Tools.toQueryResult before QueryHighlighter.
+   */
+  private static String regexHighlight(String query, String str) {
+    String regexp = "";
+
+    String[] qs = query.split(" ");
+    for (String q : qs) {
+      regexp += (regexp.length() > 0 ? "|" : "") + q;
+    }
+
+    Pattern myPattern = Pattern.compile("(" + regexp + ")", Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+        | Pattern.UNICODE_CASE);
+    Matcher myMatcher = myPattern.matcher(str);
+
+    return myMatcher.replaceAll("<strong>$1</strong>");
+  }
+
+}
@@ -0,0 +1,76 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.RAMDirectory;
+
+public class IndexWriterServiceTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  private static Document doc(String id) {
+    Document doc = new Document();
+    doc.add(new Field("id", id, Field.Store.YES, Field.Index.NOT_ANALYZED));
+    return doc;
+  }
+
+  public void testReopenKeepsIndex() throws Exception {
+    RAMDirectory dir = new RAMDirectory();
+    IndexWriterService service = new IndexWriterService(dir, new WhitespaceAnalyzer(), true, null);
+    service.addDocument(doc("1"));
+    service.close();
+    service.addDocument(doc("2"));
+    service.close();
+
+    IndexReader reader = IndexReader.open(dir);
+    try {
+      assertEquals(2, reader.numDocs());
+    } finally {
+      reader.close();
+    }
+  }
+
+  public void testCloseWhileAdding() throws Exception {
+    RAMDirectory dir = new RAMDirectory();
+    final IndexWriterService service = new IndexWriterService(dir, new WhitespaceAnalyzer(), true, null);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread adder = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < 2000; i++) {
+            service.addDocument(doc(String.valueOf(i)));
+          }
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    };
+    adder.start();
+    while (adder.isAlive()) {
+      service.close();
+    }
+    service.close();
+
+    assertNull(failure.get());
+    IndexReader reader = IndexReader.open(dir);
+    try {
+      assertEquals(2000, reader.numDocs());
+    } finally {
+      reader.close();
+    }
+  }
+
+}
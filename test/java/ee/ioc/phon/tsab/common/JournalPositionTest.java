@@ -0,0 +1,100 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import ee.ioc.phon.tsab.dao.TestRecordings;
+import ee.ioc.phon.tsab.domain.Transcription;
+
+public class JournalPositionTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  public void testSkippedIdsBecomeGaps() {
+    JournalPosition p = new JournalPosition(10);
+    p.applied(11, 1000);
+    p.applied(14, 2000);
+    p.applied(20, 3000);
+
+    assertEquals(20, p.getApplied());
+    assertEquals("[12-13@2000, 15-19@3000]", p.getGaps().toString());
+
+    p.applied(17, 4000);
+    assertEquals("[12-13@2000, 15-16@3000, 18-19@3000]", p.getGaps().toString());
+    p.applied(12, 4000);
+    p.applied(13, 4000);
+    assertEquals("[15-16@3000, 18-19@3000]", p.getGaps().toString());
+  }
+
+  public void testExpire() {
+    JournalPosition p = new JournalPosition(0);
+    p.applied(2, 1000);
+    p.applied(4, 2000);
+    p.applied(6, 3000);
+
+    List<JournalPosition.Gap> expired = p.expire(2500);
+    assertEquals("[1-1@1000, 3-3@2000]", expired.toString());
+    assertEquals("[5-5@3000]", p.getGaps().toString());
+  }
+
+  public void testCommitData() {
+    JournalPosition p = new JournalPosition(5);
+    p.applied(8, 1000);
+    JournalPosition read = JournalPosition.fromCommitData(p.toCommitData());
+    assertEquals(8, read.getApplied());
+    assertEquals("[6-7@1000]", read.getGaps().toString());
+
+    // written before gaps were tracked
+    JournalPosition old = JournalPosition.fromCommitData(Collections.singletonMap(JournalPosition.COMMIT_APPLIED,
+        "42"));
+    assertEquals(42, old.getApplied());
+    assertTrue(old.getGaps().isEmpty());
+  }
+
+  public void testLateEntryIsApplied() throws Exception {
+    Transcription a = TestRecordings.add("Journal test", "a");
+    Transcription b = TestRecordings.add("Journal test", "b");
+    Transcription c = TestRecordings.add("Journal test", "c");
+    IndexJournalIndexer indexer = Search.getJournalIndexer();
+    indexer.drain();
+    long last = indexer.getPosition().getApplied();
+
+    // the transaction of entry last + 2 commits after that of last + 3
+    journal(last + 1, a.getId());
+    journal(last + 3, c.getId());
+    assertEquals(2, indexer.drain());
+    assertEquals(last + 3, indexer.getPosition().getApplied());
+    assertEquals(1, indexer.getPosition().getGaps().size());
+
+    journal(last + 2, b.getId());
+    assertEquals(1, indexer.drain());
+    assertTrue(indexer.getPosition().getGaps().isEmpty());
+    assertEquals(0, indexer.drain());
+  }
+
+  private static void journal(long id, long transcriptionId) throws Exception {
+    Connection c = TestRecordings.connect();
+    try {
+      PreparedStatement ps = c
+          .prepareStatement("insert into index_journal (id, transcription_id, created) values (?, ?, ?)");
+      ps.setLong(1, id);
+      ps.setLong(2, transcriptionId);
+      ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+      ps.executeUpdate();
+    } finally {
+      c.close();
+    }
+  }
+
+}
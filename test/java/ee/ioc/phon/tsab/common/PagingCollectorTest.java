@@ -0,0 +1,109 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.RAMDirectory;
+
+public class PagingCollectorTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  private static IndexSearcher searcher(int docs) throws Exception {
+    RAMDirectory dir = new RAMDirectory();
+    IndexWriter w = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.LIMITED);
+    for (int i = 0; i < docs; i++) {
+      Document doc = new Document();
+      doc.add(new Field("id", String.valueOf(i), Field.Store.YES, Field.Index.NOT_ANALYZED));
+      w.addDocument(doc);
+    }
+    w.close();
+    return new IndexSearcher(dir, true);
+  }
+
+  /**
+   * @return document numbers of every page, following the cursors
+   */
+  private static List<String> pages(IndexSearcher s, int pageSize) throws Exception {
+    List<String> pages = new ArrayList<String>();
+    long version = s.getIndexReader().getVersion();
+    String cursor = null;
+    do {
+      PagingCollector collector = new PagingCollector(pageSize, cursor == null ? null : Search.parseCursor(cursor,
+          version));
+      s.search(new MatchAllDocsQuery(), collector);
+      ScoreDoc[] hits = collector.getHits();
+      StringBuilder page = new StringBuilder();
+      for (ScoreDoc hit : hits) {
+        page.append(page.length() > 0 ? "," : "").append(hit.doc);
+      }
+      pages.add(page.toString());
+      cursor = collector.hasMore() ? Search.toCursor(version, hits[hits.length - 1]) : null;
+    } while (cursor != null);
+    return pages;
+  }
+
+  public void testPages() throws Exception {
+    assertEquals("[0,1,2, 3,4,5, 6]", pages(searcher(7), 3).toString());
+  }
+
+  public void testExactlyFullLastPage() throws Exception {
+    assertEquals("[0,1,2, 3,4,5]", pages(searcher(6), 3).toString());
+  }
+
+  public void testNoHits() throws Exception {
+    assertEquals("[]", pages(searcher(0), 3).toString());
+  }
+
+  public void testTotalHits() throws Exception {
+    IndexSearcher s = searcher(7);
+    PagingCollector collector = new PagingCollector(3, new ScoreDoc(2, 1f));
+    s.search(new MatchAllDocsQuery(), collector);
+    assertEquals(7, collector.getTotalHits());
+    assertEquals(3, collector.getHits().length);
+    assertTrue(collector.hasMore());
+  }
+
+  public void testCursor() throws Exception {
+    ScoreDoc after = Search.parseCursor(Search.toCursor(42, new ScoreDoc(17, 0.125f)), 42);
+    assertEquals(17, after.doc);
+    assertEquals(0.125f, after.score);
+  }
+
+  public void testStaleCursor() throws Exception {
+    String cursor = Search.toCursor(42, new ScoreDoc(17, 0.125f));
+    try {
+      Search.parseCursor(cursor, 43);
+      fail("Cursor of another index version accepted");
+    } catch (TsabException e) {
+      // expected
+    }
+  }
+
+  public void testInvalidCursor() throws Exception {
+    for (String cursor : new String[] { "", "17", "2a.3e000000", "2a.x.17", "2a.3e000000.17.1" }) {
+      try {
+        Search.parseCursor(cursor, 42);
+        fail("Invalid cursor accepted: " + cursor);
+      } catch (TsabException e) {
+        // expected
+      }
+    }
+  }
+
+}
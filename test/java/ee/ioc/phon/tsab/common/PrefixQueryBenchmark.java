@@ -0,0 +1,107 @@
+package ee.ioc.phon.tsab.common;
+
+import java.util.Random;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.queryParser.MultiFieldQueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * Compares trailing wildcard search through term expansion (the old path) with
+ * the prefix field lookup done by {@link Search#getQuery(String)} on a
+ * synthetic corpus. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java ee.ioc.phon.tsab.common.PrefixQueryBenchmark [fragments] [vocabulary size]
+ * </pre>
+ */
+public class PrefixQueryBenchmark {
+
+  private static final String LETTERS = "aaabdeeefghiiijkklmnooprsssttuuv\u00f5\u00e4\u00f6\u00fc";
+
+  private static final String[] QUERIES = { "a*", "ka*", "kal*", "sel*", "t* v*", "kala* ma*" };
+
+  private static final int ROUNDS = 20;
+
+  public static void main(String[] args) throws Exception {
+    int fragments = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    int vocabularySize = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+    Random random = new Random(42);
+    String[] vocabulary = new String[vocabularySize];
+    for (int i = 0; i < vocabularySize; i++) {
+      vocabulary[i] = randomWord(random);
+    }
+
+    System.out.println("Indexing " + fragments + " fragments over " + vocabularySize + " words");
+    RAMDirectory dir = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(dir, Search.getAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
+    writer.setRAMBufferSizeMB(64);
+    for (int i = 0; i < fragments; i++) {
+      StringBuilder text = new StringBuilder();
+      for (int w = 0; w < 12; w++) {
+        text.append(vocabulary[zipf(random, vocabularySize)]).append(' ');
+      }
+      Document doc = new Document();
+      doc.add(new Field(Search.FIELD_CONTENTS, text.toString(), Field.Store.NO, Field.Index.ANALYZED));
+      Field prefix = new Field(Search.FIELD_CONTENTS_PREFIX, text.toString(), Field.Store.NO,
+          Field.Index.ANALYZED_NO_NORMS);
+      prefix.setOmitTermFreqAndPositions(true);
+      doc.add(prefix);
+      writer.addDocument(doc);
+    }
+    writer.optimize();
+    writer.close();
+
+    IndexSearcher searcher = new IndexSearcher(dir, true);
+    MultiFieldQueryParser oldParser = new MultiFieldQueryParser(Version.LUCENE_CURRENT, new String[] {
+        Search.FIELD_TITLE, Search.FIELD_CONTENTS }, new StandardAnalyzer(Version.LUCENE_CURRENT));
+
+    System.out.println("query\texpansion ms\tprefix field ms\thits");
+    for (String q : QUERIES) {
+      Query oldQuery = oldParser.parse(q);
+      Query newQuery = Search.getQuery(q);
+
+      int oldHits = searcher.search(oldQuery, 10).totalHits;
+      int newHits = searcher.search(newQuery, 10).totalHits;
+      if (oldHits != newHits) {
+        throw new IllegalStateException("Hit counts differ for " + q + ": " + oldHits + " vs " + newHits);
+      }
+
+      System.out.println(q + "\t" + time(searcher, oldQuery) + "\t" + time(searcher, newQuery) + "\t" + newHits);
+    }
+    searcher.close();
+  }
+
+  private static float time(IndexSearcher searcher, Query query) throws Exception {
+    for (int i = 0; i < ROUNDS; i++) {
+      searcher.search(query, 10);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ROUNDS; i++) {
+      searcher.search(query, 10);
+    }
+    return (System.nanoTime() - start) / 1000000f / ROUNDS;
+  }
+
+  private static String randomWord(Random random) {
+    int length = 3 + random.nextInt(10);
+    StringBuilder word = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+    }
+    return word.toString();
+  }
+
+  // roughly Zipf distributed index into the vocabulary, as in natural text
+  private static int zipf(Random random, int size) {
+    return (int) Math.min(size - 1, Math.floor(Math.pow(size + 1, random.nextDouble())) - 1);
+  }
+
+}
@@ -0,0 +1,55 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermAttribute;
+
+public class PrefixTokenFilterTest extends TestCase {
+
+  /**
+   * @return the tokens, each followed by its position increment
+   */
+  private static String tokens(String text, int maxLength) throws Exception {
+    TokenStream ts = new PrefixTokenFilter(new WhitespaceTokenizer(new StringReader(text)), maxLength);
+    TermAttribute term = ts.addAttribute(TermAttribute.class);
+    PositionIncrementAttribute posInc = ts.addAttribute(PositionIncrementAttribute.class);
+    StringBuilder sb = new StringBuilder();
+    while (ts.incrementToken()) {
+      sb.append(sb.length() > 0 ? " " : "").append(term.term()).append('/').append(posInc.getPositionIncrement());
+    }
+    ts.end();
+    ts.close();
+    return sb.toString();
+  }
+
+  public void testPrefixes() throws Exception {
+    assertEquals("k/1 ka/0 kal/0 kala/0", tokens("kala", 12));
+  }
+
+  public void testPositions() throws Exception {
+    assertEquals("k/1 ka/0 kal/0 kala/0 m/1 me/0 mee/0 mees/0", tokens("kala mees", 12));
+    assertEquals("a/1 o/1 on/0", tokens("a on", 12));
+  }
+
+  public void testMaxLength() throws Exception {
+    assertEquals("k/1 ka/0 kal/0 m/1", tokens("kalamees m", 3));
+  }
+
+  public void testLongToken() throws Exception {
+    // longer than the initial buffer of the filter
+    String word = "rahvusringhäälinguarhiiv";
+    String tokens = tokens(word + " x", 100);
+    assertTrue(tokens, tokens.endsWith(" " + word + "/0 x/1"));
+    assertEquals(word.length() + 1, tokens.split(" ").length);
+  }
+
+  public void testEmpty() throws Exception {
+    assertEquals("", tokens("", 12));
+  }
+
+}
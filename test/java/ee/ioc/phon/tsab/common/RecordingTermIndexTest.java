@@ -0,0 +1,86 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+
+public class RecordingTermIndexTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  private RecordingTermIndex index;
+
+  private static void add(IndexWriter w, String tid, String type, long time, String contents) throws Exception {
+    Document doc = new Document();
+    doc.add(new Field(Search.FIELD_TID, tid, Field.Store.YES, Field.Index.NOT_ANALYZED));
+    doc.add(new Field(Search.FIELD_TYPE, type, Field.Store.YES, Field.Index.NOT_ANALYZED));
+    doc.add(new Field(Search.FIELD_TIME, String.valueOf(time), Field.Store.YES, Field.Index.NO));
+    doc.add(new Field(Search.FIELD_CONTENTS, contents, Field.Store.YES, Field.Index.ANALYZED));
+    w.addDocument(doc);
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    RAMDirectory dir = new RAMDirectory();
+    IndexWriter w = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.LIMITED);
+    // out of time order, with a recording document and another recording
+    add(w, "1", Search.TYPE_FRAGMENT, 3000, "Kalamees läks merele");
+    add(w, "1", Search.TYPE_RECORDING, 0, "kala kala");
+    add(w, "1", Search.TYPE_FRAGMENT, 1000, "Tere, kala on värske");
+    add(w, "1", Search.TYPE_FRAGMENT, 2000, "meri on suur ja kala on väike");
+    add(w, "2", Search.TYPE_FRAGMENT, 500, "kala");
+    w.close();
+    IndexReader reader = IndexReader.open(dir, true);
+    try {
+      index = RecordingTermIndex.build(reader, "1");
+    } finally {
+      reader.close();
+    }
+  }
+
+  private String find(String query) {
+    return Arrays.toString(index.find(query));
+  }
+
+  public void testSize() {
+    assertEquals(3, index.size());
+  }
+
+  public void testWord() {
+    assertEquals("[1000]", find("värske"));
+    assertEquals("[1000]", find("Tere"));
+    // every word of the query is a prefix
+    assertEquals("[1000, 2000, 3000]", find("kala"));
+  }
+
+  public void testPrefix() {
+    assertEquals("[1000, 2000, 3000]", find("kal"));
+    assertEquals("[2000, 3000]", find("mer"));
+  }
+
+  public void testAllWords() {
+    assertEquals("[2000, 3000]", find("kala mer"));
+    assertEquals("[2000]", find("kala väike"));
+    assertEquals("[3000]", find("kalam mer"));
+    assertEquals("[]", find("väike värske"));
+  }
+
+  public void testNoMatch() {
+    assertEquals("[]", find("koer"));
+    assertEquals("[]", find(""));
+  }
+
+}
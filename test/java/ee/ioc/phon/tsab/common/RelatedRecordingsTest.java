@@ -0,0 +1,86 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import ee.ioc.phon.tsab.dao.TestRecordings;
+import ee.ioc.phon.tsab.dao.TsabDao;
+import ee.ioc.phon.tsab.dao.TsabDaoService;
+import ee.ioc.phon.tsab.domain.Transcription;
+
+public class RelatedRecordingsTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  private File file;
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (file != null) {
+      file.delete();
+    }
+  }
+
+  public void testChangedRecordingsLeaveStoredLists() throws Exception {
+    TsabDao dao = TsabDaoService.getDao();
+    Transcription a = TestRecordings.add("Related test", "a");
+    Transcription b = TestRecordings.add("Related test", "b");
+    // without topics, which deleteTranscriptionById leaves behind
+    Transcription c = TestRecordings.add("Related test", "c",
+        Collections.singletonList(TestRecordings.fragment(0, "tere c", null)), new Hashtable<String, String>());
+    Search.getJournalIndexer().drain();
+
+    // as computed by a batch run before b was retitled and c deleted
+    file = new File(Search.getIndexGenerations().getActiveFolder(), RelatedRecordings.FILE_NAME);
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      out.write(a.getId() + "\t" + b.getId() + "\tb\tRelated test\t" + c.getId() + "\tc\tRelated test\n");
+    } finally {
+      out.close();
+    }
+    RelatedRecordings related = new RelatedRecordings();
+    assertEquals("[b, c]", titles(related.get(a.getId().toString())));
+
+    // changed by another process: this one only sees the new index commit
+    long generation = Search.getIndexGeneration();
+    b.setTitle("b2");
+    dao.updateTranscription(b);
+    dao.deleteTranscriptionById(c.getId());
+    Search.getJournalIndexer().drain();
+    waitForReopen(generation);
+
+    assertEquals("[b2]", titles(related.get(a.getId().toString())));
+  }
+
+  private static void waitForReopen(long generation) throws Exception {
+    long until = System.currentTimeMillis() + 10 * Constants.indexChangeCheckInterval;
+    while (Search.getIndexGeneration() == generation) {
+      assertTrue("searcher not reopened", System.currentTimeMillis() < until);
+      Thread.sleep(50);
+    }
+  }
+
+  private static String titles(List<RecordingHit> hits) {
+    StringBuilder sb = new StringBuilder("[");
+    for (RecordingHit hit : hits) {
+      if (sb.length() > 1) {
+        sb.append(", ");
+      }
+      sb.append(hit.getTitle());
+    }
+    return sb.append(']').toString();
+  }
+
+}
@@ -0,0 +1,60 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class SearchQueryTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  private static String prefix(String query) {
+    return Search.toPrefixQuery(Search.normalizeQuery(query));
+  }
+
+  public void testNormalize() {
+    assertEquals("kala mees", Search.normalizeQuery("  Kala \t MEES "));
+    assertEquals("kala AND mees OR naine NOT and", Search.normalizeQuery("Kala AND mees OR Naine NOT and"));
+  }
+
+  public void testWords() {
+    assertEquals("kala* mees*", prefix("kala mees"));
+    assertEquals("and* kala*", prefix("and kala"));
+  }
+
+  public void testOperators() {
+    assertEquals("kala* AND mees* OR naine* NOT vesi*", prefix("kala AND mees OR naine NOT vesi"));
+    assertEquals("kala* && mees*", prefix("kala && mees"));
+  }
+
+  public void testRequiredAndProhibited() {
+    assertEquals("+kala* -mees*", prefix("+kala -mees"));
+    assertEquals("(kala* OR mees*) +naine*", prefix("(kala OR mees) +naine"));
+  }
+
+  public void testPhrases() {
+    assertEquals("\"kala mees\" naine*", prefix("\"Kala mees\" naine"));
+    assertEquals("+\"kala mees\"~2 -\"vana naine\"", prefix("+\"kala mees\"~2 -\"vana naine\""));
+    assertEquals("\"kala mees", prefix("\"kala mees"));
+  }
+
+  public void testSyntax() {
+    assertEquals("kala~ mee? title:naine vesi*", prefix("kala~ mee? title:naine vesi*"));
+  }
+
+  public void testSpeaker() {
+    assertEquals("kala* speaker:\"jaan tamm\" mees*", prefix("kala speaker:\"Jaan Tamm\" mees"));
+  }
+
+  public void testParses() throws Exception {
+    for (String query : new String[] { "kala AND mees", "+\"kala mees\" -naine", "(kala OR mees) NOT vesi" }) {
+      assertNotNull(query, Search.getQuery(prefix(query)));
+    }
+  }
+
+}
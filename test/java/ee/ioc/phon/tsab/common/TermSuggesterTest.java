@@ -0,0 +1,72 @@
+package ee.ioc.phon.tsab.common;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.RAMDirectory;
+
+public class TermSuggesterTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  private TermSuggester.Dictionary dictionary;
+
+  @Override
+  protected void setUp() throws Exception {
+    RAMDirectory dir = new RAMDirectory();
+    IndexWriter w = new IndexWriter(dir, new WhitespaceAnalyzer(), true, IndexWriter.MaxFieldLength.LIMITED);
+    String[][] docs = { { "kalamees", "kala kalad" }, { "kala", "kala kass" }, { "", "kass kala kalur" },
+        { "", "koer" } };
+    for (String[] fields : docs) {
+      Document doc = new Document();
+      doc.add(new Field(Search.FIELD_TITLE, fields[0], Field.Store.NO, Field.Index.ANALYZED));
+      doc.add(new Field(Search.FIELD_CONTENTS, fields[1], Field.Store.NO, Field.Index.ANALYZED));
+      w.addDocument(doc);
+    }
+    w.close();
+    IndexReader reader = IndexReader.open(dir, true);
+    try {
+      dictionary = TermSuggester.read(reader, 0);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private String suggest(String prefix, int max) {
+    List<TermSuggester.Suggestion> suggestions = dictionary.suggest(prefix, max);
+    StringBuilder sb = new StringBuilder();
+    for (TermSuggester.Suggestion s : suggestions) {
+      sb.append(sb.length() > 0 ? " " : "").append(s.getWord()).append('=').append(s.getCount());
+    }
+    return sb.toString();
+  }
+
+  public void testMostFrequentFirst() {
+    // title and contents counts are added up
+    assertEquals("kala=4 kass=2 kalad=1 kalamees=1 kalur=1", suggest("ka", 10));
+  }
+
+  public void testMax() {
+    assertEquals("kala=4 kass=2", suggest("ka", 2));
+    assertEquals("kala=4", suggest("kal", 1));
+  }
+
+  public void testNoMatch() {
+    assertEquals("", suggest("x", 5));
+    assertEquals("", suggest("kalam2", 5));
+    assertEquals("koer=1", suggest("koer", 5));
+  }
+
+}
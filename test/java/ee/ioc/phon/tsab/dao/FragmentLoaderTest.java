@@ -0,0 +1,114 @@
+package ee.ioc.phon.tsab.dao;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import ee.ioc.phon.tsab.domain.Transcription;
+import ee.ioc.phon.tsab.domain.TranscriptionFragment;
+
+public class FragmentLoaderTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  private final TsabDao dao = TsabDaoService.getDao();
+
+  public void testTopicIdsReadBack() throws Exception {
+    Hashtable<String, String> topics = new Hashtable<String, String>();
+    topics.put("t1", "Esimene");
+    topics.put("t2", "Teine");
+    topics.put("t3", "Ilma lõikudeta");
+    List<TranscriptionFragment> fragments = new ArrayList<TranscriptionFragment>();
+    fragments.add(fragment(0, "t1"));
+    fragments.add(fragment(1000, "t2"));
+    fragments.add(fragment(2000, "t1"));
+    fragments.add(fragment(3000, null));
+    fragments.add(fragment(4000, "tundmatu"));
+    Transcription t = TestRecordings.add("Loader test", "Laadimine", fragments, topics);
+
+    Connection c = TestRecordings.connect();
+    try {
+      // topic id -> row id, time of the first fragment
+      Map<String, Long> ids = new HashMap<String, Long>();
+      Map<String, Long> times = new HashMap<String, Long>();
+      ResultSet rs = c.createStatement().executeQuery(
+          "select id, topic_id, time from transcriptiontopic where transcription_id = " + t.getId());
+      while (rs.next()) {
+        ids.put(rs.getString(2), rs.getLong(1));
+        Long time = rs.getLong(3);
+        if (rs.wasNull()) {
+          time = null;
+        }
+        times.put(rs.getString(2), time);
+      }
+      assertEquals(3, ids.size());
+      assertEquals(Long.valueOf(0), times.get("t1"));
+      assertEquals(Long.valueOf(1000), times.get("t2"));
+      assertNull(times.get("t3"));
+
+      rs = c.createStatement().executeQuery(
+          "select topic_id from transcriptionfragment where transcription_id = " + t.getId() + " order by time");
+      List<Long> topicIds = new ArrayList<Long>();
+      while (rs.next()) {
+        Long id = rs.getLong(1);
+        topicIds.add(rs.wasNull() ? null : id);
+      }
+      List<Long> expected = new ArrayList<Long>();
+      expected.add(ids.get("t1"));
+      expected.add(ids.get("t2"));
+      expected.add(ids.get("t1"));
+      expected.add(null);
+      expected.add(null);
+      assertEquals(expected, topicIds);
+    } finally {
+      c.close();
+    }
+
+    assertEquals(3, dao.getTranscriptionTopics(t).size());
+  }
+
+  public void testWithoutTopics() throws Exception {
+    List<TranscriptionFragment> fragments = new ArrayList<TranscriptionFragment>();
+    fragments.add(fragment(0, null));
+    fragments.add(fragment(1000, null));
+    Transcription t = TestRecordings.add("Loader test", "Laadimine", fragments, new Hashtable<String, String>());
+    assertEquals(2, countFragments(t));
+  }
+
+  public void testWithoutFragments() throws Exception {
+    Hashtable<String, String> topics = new Hashtable<String, String>();
+    topics.put("t1", "Tühi");
+    Transcription t = TestRecordings.add("Loader test", "Laadimine", new ArrayList<TranscriptionFragment>(), topics);
+    assertEquals(0, countFragments(t));
+    assertEquals(1, dao.getTranscriptionTopics(t).size());
+  }
+
+  private static long countFragments(Transcription t) throws Exception {
+    Connection c = TestRecordings.connect();
+    try {
+      ResultSet rs = c.createStatement().executeQuery(
+          "select count(*) from transcriptionfragment where transcription_id = " + t.getId());
+      assertTrue(rs.next());
+      return rs.getLong(1);
+    } finally {
+      c.close();
+    }
+  }
+
+  private static TranscriptionFragment fragment(long time, String topic) {
+    return TestRecordings.fragment(time, "lõik " + time, topic);
+  }
+
+}
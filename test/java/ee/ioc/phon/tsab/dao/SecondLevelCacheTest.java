@@ -0,0 +1,129 @@
+package ee.ioc.phon.tsab.dao;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.sql.Connection;
+
+import junit.framework.TestCase;
+
+import org.hibernate.stat.Statistics;
+
+import ee.ioc.phon.tsab.common.Constants;
+import ee.ioc.phon.tsab.domain.Transcription;
+
+public class SecondLevelCacheTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  private final TsabDao dao = TsabDaoService.getDao();
+
+  private Statistics stats;
+
+  private long checkInterval;
+
+  @Override
+  protected void setUp() throws Exception {
+    stats = HibernateUtil.getSessionFactory().getStatistics();
+    stats.setStatisticsEnabled(true);
+    checkInterval = Constants.dbChangeCheckInterval;
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    stats.setStatisticsEnabled(false);
+    Constants.dbChangeCheckInterval = checkInterval;
+  }
+
+  public void testCachedInsideUnitOfWork() throws Exception {
+    Transcription t = TestRecordings.add("Cache test", "cached");
+
+    UnitOfWork unit = UnitOfWork.begin("warm up");
+    try {
+      play(t);
+    } finally {
+      unit.end();
+    }
+
+    stats.clear();
+    long checkouts = CountingConnectionProvider.getCheckouts();
+    unit = UnitOfWork.begin("/p/play");
+    try {
+      play(t);
+      play(t);
+    } finally {
+      unit.end();
+    }
+
+    assertEquals("statements", 0, stats.getPrepareStatementCount());
+    assertEquals("second-level cache misses", 0, stats.getSecondLevelCacheMissCount());
+    assertTrue("second-level cache hits", stats.getSecondLevelCacheHitCount() > 0);
+    assertTrue("query cache hits", stats.getQueryCacheHitCount() > 0);
+    assertEquals("connection checkouts", 1, CountingConnectionProvider.getCheckouts() - checkouts);
+  }
+
+  public void testChangeOfOtherProcessClearsCache() throws Exception {
+    Transcription t = TestRecordings.add("Cache test", "before");
+    assertEquals("before", dao.getTranscriptionById(t.getId()).getTitle());
+
+    // another process changes the title and marks the database as changed
+    Connection c = TestRecordings.connect();
+    try {
+      c.createStatement().executeUpdate("update transcription set title = 'after' where id = " + t.getId());
+    } finally {
+      c.close();
+    }
+    Constants.dbChangeCheckInterval = 0;
+    assertEquals("before", dao.getTranscriptionById(t.getId()).getTitle());
+
+    Writer out = new FileWriter(new File(Constants.TSAB_HOME_PATH, LocalCacheProvider.CHANGE_FILE));
+    try {
+      out.write("other process " + System.nanoTime());
+    } finally {
+      out.close();
+    }
+    assertEquals("after", dao.getTranscriptionById(t.getId()).getTitle());
+  }
+
+  public void testChangeInsideUnitOfWorkIsMarkedByTimer() throws Exception {
+    Constants.dbChangeCheckInterval = 200;
+    File marker = new File(Constants.TSAB_HOME_PATH, LocalCacheProvider.CHANGE_FILE);
+    UnitOfWork unit = UnitOfWork.begin("crawl");
+    try {
+      Thread.sleep(2 * Constants.dbChangeCheckInterval);
+      dao.addCategory("Marked now " + System.nanoTime());
+      String stamp = read(marker);
+      // within the interval, held back
+      dao.addCategory("Marked later " + System.nanoTime());
+
+      Thread.sleep(3 * Constants.dbChangeCheckInterval);
+      assertFalse("stamp written before the unit ends", stamp.equals(read(marker)));
+    } finally {
+      unit.end();
+    }
+  }
+
+  private static String read(File file) throws Exception {
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    try {
+      return in.readLine();
+    } finally {
+      in.close();
+    }
+  }
+
+  private void play(Transcription t) throws Exception {
+    Transcription current = dao.getTranscriptionById(t.getId());
+    dao.getCategoryById(current.getCategory().getId());
+    dao.getTranscriptionTopics(current);
+    dao.getRecentlyAdded();
+  }
+
+}
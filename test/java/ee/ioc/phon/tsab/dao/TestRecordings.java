@@ -0,0 +1,65 @@
+package ee.ioc.phon.tsab.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.List;
+
+import ee.ioc.phon.tsab.domain.Transcription;
+import ee.ioc.phon.tsab.domain.TranscriptionFragment;
+
+/**
+ * Recordings for tests, added through {@link TsabDao} to the in-memory test
+ * database of test/resources/hibernate.cfg.xml.
+ */
+public class TestRecordings {
+
+  private static final String URL = "jdbc:hsqldb:mem:tsabtest";
+
+  /**
+   * Adds a recording of one fragment with the text <code>"tere " + title</code>
+   * in topic <code>t1</code>.
+   */
+  public static Transcription add(String category, String title) throws Exception {
+    List<TranscriptionFragment> fragments = new ArrayList<TranscriptionFragment>();
+    fragments.add(fragment(0, "tere " + title, "t1"));
+    Hashtable<String, String> topics = new Hashtable<String, String>();
+    topics.put("t1", "Topic");
+    return add(category, title, fragments, topics);
+  }
+
+  /**
+   * Adds a recording with view count 0, as trans-add does, in a new category.
+   */
+  public static Transcription add(String category, String title, List<TranscriptionFragment> fragments,
+      Hashtable<String, String> topics) throws Exception {
+    TsabDao dao = TsabDaoService.getDao();
+    Transcription t = new Transcription();
+    t.setTitle(title);
+    t.setFn("test-" + System.nanoTime());
+    t.setCategory(dao.addCategory(category));
+    t.setRecorded(new Date());
+    t.setViewCount(0L);
+    return dao.addTranscription(t, fragments, topics);
+  }
+
+  public static TranscriptionFragment fragment(long time, String text, String topic) {
+    TranscriptionFragment f = new TranscriptionFragment();
+    f.setText(text);
+    f.setTime(time);
+    f.setTransientTopicDesc(topic);
+    return f;
+  }
+
+  /**
+   * @return plain JDBC connection to the test database, bypassing Hibernate
+   *         and its caches
+   */
+  public static Connection connect() throws SQLException {
+    return DriverManager.getConnection(URL, "sa", "");
+  }
+
+}
@@ -0,0 +1,70 @@
+package ee.ioc.phon.tsab.dao;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import ee.ioc.phon.tsab.domain.Transcription;
+
+public class UnitOfWorkTest extends TestCase {
+
+  static {
+    System.setProperty("TSAB.HOME", "target/tsabtesthome");
+
+    new File("target/tsabtesthome/lucene").mkdirs();
+    new File("target/tsabtesthome/audio").mkdirs();
+  }
+
+  private final TsabDao dao = TsabDaoService.getDao();
+
+  public void testCheckoutsAgainstSessions() throws Exception {
+    Transcription t = TestRecordings.add("Unit test", "unit");
+
+    long before = CountingConnectionProvider.getCheckouts();
+    play(t);
+    long withoutUnit = CountingConnectionProvider.getCheckouts() - before;
+
+    long units = UnitOfWork.getTotalUnits();
+    long sessions = UnitOfWork.getTotalSessions();
+    long checkouts = UnitOfWork.getTotalCheckouts();
+    UnitOfWork unit = UnitOfWork.begin("/p/play");
+    try {
+      play(t);
+    } finally {
+      unit.end();
+    }
+
+    assertEquals(4, unit.getCalls());
+    assertEquals(withoutUnit, unit.getSessions());
+    assertEquals(1, unit.getCheckouts());
+    assertEquals(units + 1, UnitOfWork.getTotalUnits());
+    assertEquals(sessions + withoutUnit, UnitOfWork.getTotalSessions());
+    assertEquals(checkouts + 1, UnitOfWork.getTotalCheckouts());
+  }
+
+  public void testNestedUnitsEndWithTheOuterOne() throws Exception {
+    UnitOfWork unit = UnitOfWork.begin("outer");
+    try {
+      UnitOfWork inner = UnitOfWork.begin("inner");
+      try {
+        dao.getRecentlyAdded();
+      } finally {
+        inner.end();
+      }
+      assertSame(unit, inner);
+      assertTrue(UnitOfWork.isActive());
+    } finally {
+      unit.end();
+    }
+    assertFalse(UnitOfWork.isActive());
+    assertEquals(1, unit.getCalls());
+  }
+
+  private void play(Transcription t) throws Exception {
+    Transcription current = dao.getTranscriptionById(t.getId());
+    dao.getCategoryById(current.getCategory().getId());
+    dao.getTranscriptionTopics(current);
+    dao.getRecentlyAdded();
+  }
+
+}
@@ -0,0 +1,40 @@
+package ee.ioc.phon.tsab.web;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import ee.ioc.phon.tsab.common.TsabException;
+
+public class CalendarDateTest extends TestCase {
+
+  public void testValid() throws Exception {
+    assertEquals("01.12.2009", format(TsabServlet.parseDate("12-2009", "MM-yyyy")));
+    assertEquals("29.02.2008", format(TsabServlet.parseDate("29-02-2008", "dd-MM-yyyy")));
+  }
+
+  public void testInvalid() {
+    assertInvalid("13-2009", "MM-yyyy");
+    assertInvalid("00-2009", "MM-yyyy");
+    assertInvalid("12-2009x", "MM-yyyy");
+    assertInvalid("12-2009 ", "MM-yyyy");
+    assertInvalid("29-02-2009", "dd-MM-yyyy");
+    assertInvalid("", "dd-MM-yyyy");
+    assertInvalid(null, "dd-MM-yyyy");
+  }
+
+  private static void assertInvalid(String value, String pattern) {
+    try {
+      TsabServlet.parseDate(value, pattern);
+      fail("accepted " + value);
+    } catch (TsabException e) {
+      // expected
+    }
+  }
+
+  private static String format(Date date) {
+    return new SimpleDateFormat("dd.MM.yyyy").format(date);
+  }
+
+}
@@ -0,0 +1,7 @@
+<#ftl attributes={"content_type": "application/json; charset=UTF-8"}>
+<#assign util = statics["ee.ioc.phon.tsab.web.TsabWebUtil"]>
+<#if error?exists>
+{"error": ${util.toJson(error)}}
+<#else>
+{"trans": ${util.toJson(trans)}, "times": [<#list times as t>${t?c}<#if t_has_next>, </#if></#list>]}
+</#if>
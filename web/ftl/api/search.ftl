@@ -0,0 +1,20 @@
+<#ftl attributes={"content_type": "application/json; charset=UTF-8"}>
+<#assign util = statics["ee.ioc.phon.tsab.web.TsabWebUtil"]>
+<#if error?exists>
+{"error": ${util.toJson(error)}}
+<#else>
+{
+	"totalHits": ${page.totalHits?c},
+	"hits": [
+	<#list page.hits as h>
+		{"tid": ${util.toJson(h.tid)}, "type": ${util.toJson(h.type)}, "title": ${util.toJson(h.title)}, "category": ${util.toJson(h.category)}, "time": <#if h.time?exists>${h.time?c}<#else>null</#if>, "speaker": ${util.toJson(h.speaker)}, "topic": ${util.toJson(h.topic)}, "text": ${util.toJson(h.text)}, "score": ${h.score?c}}<#if h_has_next>,</#if>
+	</#list>
+	],
+	"facets": {
+	<#list page.facets?keys as f>
+		${util.toJson(f)}: {<#list page.facets[f]?keys as v>${util.toJson(v)}: ${page.facets[f][v]?c}<#if v_has_next>, </#if></#list>}<#if f_has_next>,</#if>
+	</#list>
+	},
+	"next": <#if page.nextCursor?exists>${util.toJson(page.nextCursor)}<#else>null</#if>
+}
+</#if>
@@ -0,0 +1,7 @@
+<#ftl attributes={"content_type": "application/json; charset=UTF-8"}>
+<#assign util = statics["ee.ioc.phon.tsab.web.TsabWebUtil"]>
+{"suggestions": [
+<#list suggestions as s>
+	{"text": ${util.toJson(typed + s.word)}, "word": ${util.toJson(s.word)}, "count": ${s.count?c}}<#if s_has_next>,</#if>
+</#list>
+]}
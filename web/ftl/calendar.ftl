@@ -2,14 +2,18 @@
 <#global title>Home</#global>
 <#global main>
 
-<h1>${date?string("dd.MM.yyyy")}</h1>
+<#if error?exists>
+<p>${error?html}</p>
+<#else>
+<h1><#if month?exists>${date?string("MM.yyyy")}<#else>${date?string("dd.MM.yyyy")}</#if></h1>
 <#list trans as row>
 	<li>
-		<#if row.category?exists>
-			${statics["ee.ioc.phon.tsab.web.TsabWebUtil"].getCategoryBreadcrumb(row.category)} &gt;			
+		<#if row.categoryId?exists>
+			<a href='category?cat=${row.categoryId}'>${row.category}</a> &gt;
 		</#if>
-		 <a href="play?trans=${row.id}"><#if row.title?exists>${row.title}<#else>Untitled</#if></a>
+		 <a href="play?trans=${row.uid}"><#if row.title?exists>${row.title}<#else>Untitled</#if></a>
 </#list>
+</#if>
 
 </#global>
 <#import "layout.ftl" as lay>
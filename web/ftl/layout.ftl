@@ -62,6 +62,7 @@
 		  	${loc.login}
 		  </#if>
 		  </a>	
+	      <li class="page_item"><a href="speakers">${loc.speakers}</a>
 	      <li class="page_item"><a href="about">${loc.about}</a>
 	      <li class="page_item last"><a href="mailto:${loc.email_address}">${loc.email}</a>
 	    </ul>
@@ -80,7 +81,7 @@
 			
 				<div id="search">
 					<form action="search" method="post" accept-charset="UTF-8"/>
-						<input name="q" type="input" size="13"/><input type="submit" value="${loc.search_button}"/>
+						<input id="searchbox" name="q" type="input" size="13"/><input type="submit" value="${loc.search_button}"/>
 					</form>
 				</div>
 
@@ -116,7 +117,7 @@
 				</script>
 			</div>
 			<div id="right-container">
-				${main}
+				<#if main?exists>${main}<#else><#nested></#if>
 			</div>
 		</div> <!-- end of content -->
 	</div> <!-- end of content-outer -->
@@ -128,6 +129,8 @@
 <script type='text/javascript'>
 Event.observe(window, 'load', function() {
 
+	attachSuggest($('searchbox'));
+
 	var day = gup('day');
 	var now = new Date();
 	
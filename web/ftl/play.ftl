@@ -84,11 +84,37 @@ ${loc.trans_untitled}
 	<span id='position'></span>
 </div>
 
+<form id='findform' onsubmit='findInRecording(); return false;'>
+	<input type='text' id='findwords' size='20'/> <input type='submit' value='${loc.play_find}'/>
+	<span id='findresult'></span>
+</form>
+
 <div id='lines'>
 </div>
 
 <script type='text/javascript'>
 
+function findInRecording() {
+	var q = jQuery('#findwords').val();
+	if (jQuery.trim(q).length == 0) {
+		return;
+	}
+	jQuery.getJSON('api/find', {trans: transcriptionId, q: q}, function(data) {
+		var result = jQuery('#findresult').empty();
+		if (!data.times || data.times.length == 0) {
+			result.text('${loc.play_find_none}');
+			return;
+		}
+		jQuery.each(data.times, function(i, time) {
+			jQuery('<a href="#"></a>').text(toTime(time)).click(function() {
+				seekPosition(time);
+				return false;
+			}).appendTo(result);
+			result.append(' ');
+		});
+	});
+}
+
 $('seekbar').observe('mousedown', function(e) {
 
 	var containerLeft = Position.page($('seekbar'))[0];
@@ -20,12 +20,11 @@ soundManager.url = '../soundmanager/swf/';
 </script>
 </#global>
 
-<#global main>
+<#import "layout.ftl" as lay>
+<@lay.layout>
 
 <h1>${loc.search_title}</h1>
 
-${searchResult}
+<#if searchResult?exists><@searchResult/><#else>${searchMessage}</#if>
 
-</#global>
-<#import "layout.ftl" as lay>
-<@lay.layout/>
+</@lay.layout>
@@ -0,0 +1,13 @@
+<#global tab>index</#global>
+<#global title>${loc.speakers}</#global>
+<#global main>
+
+<h1>${loc.speakers}</h1>
+<#list speakers as speaker>
+	<li>
+		<a href="search?q=${("speaker:\"" + speaker.name + "\"")?url("UTF-8")}">${speaker.name?html}</a> (${speaker.fragments} ${loc.speakers_fragments})
+</#list>
+
+</#global>
+<#import "layout.ftl" as lay>
+<@lay.layout/>
@@ -25,3 +25,56 @@ function findPosY(obj)
       curtop += obj.y;
   return curtop;
 }
+
+// Shows word completions from api/suggest below the search box input
+function attachSuggest(input)
+{
+  var list = new Element('div', { 'class': 'suggest' }).hide();
+  input.insert({ after: list });
+  input.setAttribute('autocomplete', 'off');
+
+  var timer = null;
+  var request = 0;
+
+  input.observe('keyup', function() {
+    if (timer)
+      clearTimeout(timer);
+    timer = setTimeout(function() {
+      var q = $F(input);
+      var current = ++request;
+      if (q.length == 0) {
+        list.hide();
+        return;
+      }
+      new Ajax.Request('api/suggest', {
+        method: 'get',
+        parameters: { q: q },
+        onSuccess: function(transport) {
+          // answers to older keystrokes are dropped
+          if (current != request)
+            return;
+          var suggestions = transport.responseText.evalJSON().suggestions;
+          list.update('');
+          suggestions.each(function(s) {
+            var a = new Element('a', { href: '#' }).update(s.text.escapeHTML());
+            a.observe('mousedown', function(e) {
+              input.value = s.text;
+              list.hide();
+              window.location = 'search?q=' + encodeURIComponent(s.text);
+              Event.stop(e);
+            });
+            list.insert(a).insert(new Element('br'));
+          });
+          if (suggestions.length > 0)
+            list.show();
+          else
+            list.hide();
+        }
+      });
+    }, 150);
+  });
+
+  input.observe('blur', function() {
+    list.hide();
+  });
+}